@@ -0,0 +1,106 @@
+package com.indicative.client.android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The cost of building one upload body from queued events, as the plain batch the SDK sends by
+ * default and as a dict-v1 batch from BatchCodec, each with and without gzip.  The body sizes
+ * per event, which are what the encoding buys, are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchCodecBenchmark {
+
+    @Param({ "10", "100" })
+    public int batchSize;
+
+    private final List<String> payloads = new ArrayList<String>();
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        payloads.clear();
+        for (int i = 0; i < batchSize; i++) {
+            payloads.add(Events.payload(i));
+        }
+
+        UploadBody plain = plain();
+        UploadBody encoded = new UploadBody().append(BatchCodec.encode(Events.API_KEY, payloads));
+        System.out.println();
+        System.out.println("Bytes per event, " + batchSize + " events:"
+                + " plain " + plain.utf8Length() / batchSize
+                + " (" + gzippedLength(plain) / batchSize + " gzipped),"
+                + " dict-v1 " + encoded.utf8Length() / batchSize
+                + " (" + gzippedLength(encoded) / batchSize + " gzipped)");
+    }
+
+    @Benchmark
+    public long plainBody() {
+        return plain().utf8Length();
+    }
+
+    @Benchmark
+    public long encodedBody() throws IOException {
+        return new UploadBody().append(BatchCodec.encode(Events.API_KEY, payloads)).utf8Length();
+    }
+
+    @Benchmark
+    public void plainBodyGzipped() throws IOException {
+        gzip(plain(), discard);
+    }
+
+    @Benchmark
+    public void encodedBodyGzipped() throws IOException {
+        gzip(new UploadBody().append(BatchCodec.encode(Events.API_KEY, payloads)), discard);
+    }
+
+    /**
+     * Builds the body the way the upload task does for an unencoded batch.
+     */
+    private UploadBody plain() {
+        UploadBody body = new UploadBody().append("{\"apiKey\":\"" + Events.API_KEY + "\",\"events\":[");
+        for (int i = 0; i < payloads.size(); i++) {
+            if (i > 0) {
+                body.append(",");
+            }
+            body.append(payloads.get(i));
+        }
+        return body.append("]}");
+    }
+
+    private static void gzip(UploadBody body, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, UploadBody.BUFFER_SIZE);
+        body.writeTo(gzip);
+        gzip.finish();
+    }
+
+    private static long gzippedLength(UploadBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gzip(body, out);
+        return out.size();
+    }
+}
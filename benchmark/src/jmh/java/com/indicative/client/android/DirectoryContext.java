@@ -0,0 +1,92 @@
+package com.indicative.client.android;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The app context Indicative is launched with in the benchmarks: its files and
+ * SharedPreferences (as FilePreferences) live in one directory.  There are no system services
+ * or broadcasts, so network-aware uploads stay off, and the app never goes to the background.
+ */
+final class DirectoryContext extends Context {
+
+    private final File dir;
+    private final Map<String, SharedPreferences> preferences = new HashMap<String, SharedPreferences>();
+
+    DirectoryContext(File dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.indicative.client.android.benchmark";
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File getFilesDir() {
+        return dir;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = preferences.get(name);
+        if (prefs == null) {
+            try {
+                prefs = new FilePreferences(new File(dir, name + ".prefs"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return new File(dir, name + ".db");
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return getDatabasePath(name).delete();
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    @Override
+    public void registerComponentCallbacks(ComponentCallbacks callback) {
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,64 @@
+package com.indicative.client.android;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds events shaped like the ones apps record: a handful of common properties and a few of
+ * the event's own, serialized by Indicative.Event.
+ */
+final class Events {
+
+    static final String API_KEY = "0123456789abcdef0123456789abcdef";
+
+    private static final String[] NAMES = { "Screen Viewed", "Button Tapped", "Purchase", "Search" };
+
+    private Events() {
+    }
+
+    /**
+     * @return  The properties an app sets once with addProperties()
+     */
+    static Map<String, Object> commonProperties() {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("appVersion", "4.2.1");
+        properties.put("platform", "Android");
+        properties.put("osVersion", "6.0.1");
+        properties.put("deviceModel", "Pixel");
+        properties.put("locale", "en_US");
+        return properties;
+    }
+
+    /**
+     * @return  The properties an app passes to recordEvent() for the i-th event
+     */
+    static Map<String, Object> eventProperties(int i) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put("screen", "screen-" + (i % 20));
+        properties.put("index", i);
+        properties.put("price", 9.99 + i % 7);
+        properties.put("loggedIn", i % 3 == 0);
+        return properties;
+    }
+
+    /**
+     * @return  The i-th event's properties, common ones included
+     */
+    static Map<String, Object> properties(int i) {
+        Map<String, Object> properties = commonProperties();
+        properties.putAll(eventProperties(i));
+        return properties;
+    }
+
+    static String name(int i) {
+        return NAMES[i % NAMES.length];
+    }
+
+    /**
+     * @return  The JSON of the i-th event
+     */
+    static String payload(int i) {
+        return new Indicative.Event(API_KEY, name(i), "user-" + (i % 100), properties(i), 1500000000000L + i)
+                .getPayloadString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.indicative.client.android;
+
+import android.content.SharedPreferences;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Int and string SharedPreferences that, like the framework's, keep every value in memory and
+ * rewrite the whole file on each commit.  The framework writes XML and does it in the
+ * background on apply(); here apply() writes before returning, so its cost shows up in the
+ * operation that caused it.
+ */
+final class FilePreferences implements SharedPreferences {
+
+    private final File file;
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    FilePreferences(File file) throws IOException {
+        this.file = file;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (int entries = in.readInt(); entries > 0; entries--) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                values.put(new String(key, "UTF-8"), in.readBoolean() ? in.readUTF() : (Object) in.readInt());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<String, Object>(values);
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Integer value = (Integer) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FileEditor();
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        String value = (String) values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException();
+    }
+
+    private synchronized void write(Map<String, Object> changes, boolean clear) throws IOException {
+        if (clear) {
+            values.clear();
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                values.remove(change.getKey());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                byte[] key = entry.getKey().getBytes("UTF-8");
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeBoolean(entry.getValue() instanceof String);
+                if (entry.getValue() instanceof String) {
+                    out.writeUTF((String) entry.getValue());
+                } else {
+                    out.writeInt((Integer) entry.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private final class FileEditor implements Editor {
+        private final Map<String, Object> changes = new HashMap<String, Object>();
+        private boolean clear;
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            try {
+                write(changes, clear);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
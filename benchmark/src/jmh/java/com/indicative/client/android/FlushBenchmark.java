@@ -0,0 +1,118 @@
+package com.indicative.client.android;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flush time against a local HTTP stub: taking a batch from a queue of 10,000 events, building
+ * the request body, posting it and acknowledging the batch, as a flush and its upload do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class FlushBenchmark {
+
+    private static final int BACKLOG = 10000;
+    private static final int PAYLOADS = 1024;
+
+    @Param({ "1", "100" })
+    public int batchEvents;
+
+    // Gzip threshold in bytes; -1 sends bodies uncompressed.
+    @Param({ "-1", "1024" })
+    public int gzipThreshold;
+
+    private HttpServer server;
+    private String endpoint;
+    private File dir;
+    private EventStore store;
+    private final String[] payloads = new String[PAYLOADS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Otherwise the stub's responses wait on delayed ACKs, which swamps everything else.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // Read the whole body, as the API would, then accept it.
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Discard.
+                }
+                byte[] response = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/service/event/batch";
+
+        for (int i = 0; i < PAYLOADS; i++) {
+            payloads[i] = Events.payload(i);
+        }
+        dir = TempFiles.tempDir("flush");
+        store = new EventJournal(dir);
+        for (int i = 0; i < BACKLOG; i++) {
+            store.append(payloads[i % PAYLOADS]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        store.close();
+        TempFiles.delete(dir);
+    }
+
+    @Benchmark
+    public int flush() throws IOException {
+        EventStore.Batch batch = store.peekBatch(batchEvents, 256 * 1024, Long.MAX_VALUE);
+
+        UploadBody body = new UploadBody();
+        if (batch.records.size() == 1) {
+            body.append(batch.records.get(0));
+        } else {
+            body.append("{\"apiKey\":\"").append(Events.API_KEY).append("\",\"events\":[");
+            for (int i = 0; i < batch.records.size(); i++) {
+                if (i > 0) {
+                    body.append(",");
+                }
+                body.append(batch.records.get(i));
+            }
+            body.append("]}");
+        }
+        UploadClient.Response response = UploadClient.post(endpoint, body, gzipThreshold, null, false);
+        store.ack(batch);
+
+        // Keep the backlog where it was.
+        for (int i = batch.records.size(); i > 0; i--) {
+            store.append(payloads[next++ & (PAYLOADS - 1)]);
+        }
+        return response.statusCode;
+    }
+}
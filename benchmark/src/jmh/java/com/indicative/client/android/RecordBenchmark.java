@@ -0,0 +1,124 @@
+package com.indicative.client.android;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recording throughput through Indicative.recordEvent(), with the SDK launched over a
+ * temporary directory, common properties set and a rate limit on one event name.  Each event
+ * passes the throttle, takes the common properties snapshot, reads the user's ID, is
+ * serialized and refers to the saved version of the common properties, and is appended to the
+ * event journal: on the caller's thread in sync mode, or on the recorder thread in async mode,
+ * where this measures how fast callers hand events off.
+ *
+ * The same calls are made from 1, 2, 4 and 8 threads at once; scores are for all of them
+ * together, so they show how recording scales as app threads contend for the SDK.
+ *
+ * Nothing is uploaded: flushes are held off for as long as the policy allows, and the queue
+ * limit is lifted so events are never dropped to make room.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class RecordBenchmark {
+
+    @Param({ "sync", "async" })
+    public String mode;
+
+    private File dir;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    // Each trial runs in its own JVM, so each launches the SDK afresh.
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        dir = TempFiles.tempDir("record");
+        Indicative.setQueueLimits(Integer.MAX_VALUE, Long.MAX_VALUE, Indicative.DropPolicy.DROP_OLDEST);
+        Indicative.setFlushPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+        Indicative.setRateLimit("Search", 1000000, 1000);
+        Indicative.launch(new DirectoryContext(dir), Events.API_KEY);
+        Indicative.addProperties(Events.commonProperties());
+        // Events recorded while storage loads are held in memory and replayed, which is not
+        // what is measured here.
+        awaitWorker();
+
+        if (mode.equals("async")) {
+            Indicative.enableAsyncRecording();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Indicative.disableAsyncRecording();
+        TempFiles.delete(dir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() {
+        recordEvent();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads2() {
+        recordEvent();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() {
+        recordEvent();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8() {
+        recordEvent();
+    }
+
+    private void recordEvent() {
+        int i = sequence.incrementAndGet();
+        Indicative.recordEvent(Events.name(i), Events.eventProperties(i));
+    }
+
+    /**
+     * Waits for everything posted to the SDK's worker thread so far, such as loading storage
+     * after launch(), to have run.
+     */
+    private static void awaitWorker() throws InterruptedException {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread instanceof HandlerThread && thread.getName().equals("IndicativeWorker")) {
+                final CountDownLatch done = new CountDownLatch(1);
+                new Handler(((HandlerThread) thread).getLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+                if (!done.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Indicative's worker thread is stuck");
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException("Indicative's worker thread is not running");
+    }
+}
@@ -0,0 +1,66 @@
+package com.indicative.client.android;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes an event with Indicative.Event, which streams it through PayloadWriter, and with
+ * the org.json tree the SDK used before, using Android's own org.json sources.  Run with the gc profiler (the default here) to
+ * compare allocation per event as well as time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+
+    private static final int EVENTS = 64;
+
+    private String[] names;
+    private Map<String, Object>[] properties;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        names = new String[EVENTS];
+        properties = new Map[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            names[i] = Events.name(i);
+            properties[i] = Events.properties(i);
+        }
+    }
+
+    @Benchmark
+    public String payloadWriter() {
+        int i = next++ & (EVENTS - 1);
+        return new Indicative.Event(Events.API_KEY, names[i], "user-" + i, properties[i], 1500000000000L + i)
+                .getPayloadString();
+    }
+
+    @Benchmark
+    public String orgJson() throws JSONException {
+        int i = next++ & (EVENTS - 1);
+        JSONObject event = new JSONObject();
+        event.put("apiKey", Events.API_KEY);
+        event.put("eventName", names[i]);
+        event.put("eventTime", 1500000000000L + i);
+        event.put("idempotencyKey", Indicative.newIdempotencyKey());
+        event.put("eventUniqueId", "user-" + i);
+        JSONObject propsJson = new JSONObject();
+        for (Map.Entry<String, Object> entry : properties[i].entrySet()) {
+            propsJson.put(entry.getKey(), entry.getValue());
+        }
+        event.put("properties", propsJson);
+        return event.toString();
+    }
+}
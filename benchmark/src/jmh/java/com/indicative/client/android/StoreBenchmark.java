@@ -0,0 +1,116 @@
+package com.indicative.client.android;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistence latency per backend, with backlogs of 10 to 100k queued events.  Each operation
+ * leaves the backlog as it found it.  The SharedPreferences backend runs over FilePreferences;
+ * the SQLite backend needs a device and is not covered here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class StoreBenchmark {
+
+    private static final int PAYLOADS = 1024;
+    private static final int RING_BYTES = 128 * 1024 * 1024;
+    private static final int BATCH_EVENTS = 100;
+
+    @Param({ "journal", "ring", "prefs" })
+    public String backend;
+
+    @Param({ "10", "1000", "10000", "100000" })
+    public int backlog;
+
+    private File dir;
+    private EventStore store;
+    private final String[] payloads = new String[PAYLOADS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Every event is distinct, as its idempotency key makes it, which matters to the
+        // SharedPreferences backend: it keeps one key per distinct payload.
+        for (int i = 0; i < PAYLOADS; i++) {
+            payloads[i] = Events.payload(backlog + i);
+        }
+        dir = TempFiles.tempDir("store");
+        if (backend.equals("prefs")) {
+            // Appending one at a time would rewrite the file once per event.
+            SharedPreferences.Editor editor = new FilePreferences(new File(dir, "prefs")).edit();
+            for (int i = 0; i < backlog; i++) {
+                editor.putInt(Events.payload(i), 1);
+            }
+            editor.commit();
+            store = open(backend, dir);
+        } else {
+            store = open(backend, dir);
+            for (int i = 0; i < backlog; i++) {
+                store.append(Events.payload(i));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        TempFiles.delete(dir);
+    }
+
+    /**
+     * Queueing one event, as recording does, then consuming one from the head.
+     */
+    @Benchmark
+    public int appendOne() throws IOException {
+        store.append(payloads[next++ & (PAYLOADS - 1)]);
+        return store.skip(1);
+    }
+
+    /**
+     * Handing out a batch for upload and acknowledging it, as a flush does, then queueing as
+     * many events again.
+     */
+    @Benchmark
+    public int peekAndAckBatch() throws IOException {
+        EventStore.Batch batch = store.peekBatch(BATCH_EVENTS, Integer.MAX_VALUE, Long.MAX_VALUE);
+        store.ack(batch);
+        for (int i = batch.records.size(); i > 0; i--) {
+            store.append(payloads[next++ & (PAYLOADS - 1)]);
+        }
+        return batch.records.size();
+    }
+
+    /**
+     * Opening a store that already holds the backlog, as launch() does.
+     */
+    @Benchmark
+    public int reopen() throws IOException {
+        store.close();
+        store = open(backend, dir);
+        return store.count();
+    }
+
+    static EventStore open(String backend, File dir) throws IOException {
+        if (backend.equals("ring")) {
+            return new MappedRingEventStore(new File(dir, "ring"), RING_BYTES);
+        } else if (backend.equals("prefs")) {
+            return new SharedPreferencesEventStore(new FilePreferences(new File(dir, "prefs")));
+        }
+        return new EventJournal(new File(dir, "journal"));
+    }
+}
@@ -0,0 +1,28 @@
+package com.indicative.client.android;
+
+import java.io.File;
+import java.io.IOException;
+
+final class TempFiles {
+
+    private TempFiles() {
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile("indicative-" + prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        return dir;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,9 @@
+package android.annotation;
+
+/**
+ * Stands in for the framework's TargetApi annotation.
+ */
+public @interface TargetApi {
+
+    int value();
+}
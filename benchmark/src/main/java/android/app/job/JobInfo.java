@@ -0,0 +1,44 @@
+package android.app.job;
+
+import android.content.ComponentName;
+import android.os.PersistableBundle;
+
+/**
+ * Compile-only stand-in for the framework's JobInfo; the benchmarks never schedule upload jobs.
+ */
+public class JobInfo {
+
+    public static final int NETWORK_TYPE_ANY = 1;
+    public static final int NETWORK_TYPE_UNMETERED = 2;
+
+    public static final class Builder {
+
+        public Builder(int jobId, ComponentName service) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Builder setRequiredNetworkType(int networkType) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Builder setRequiresCharging(boolean requiresCharging) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Builder setPersisted(boolean isPersisted) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Builder setMinimumLatency(long minLatencyMillis) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Builder setExtras(PersistableBundle extras) {
+            throw new UnsupportedOperationException();
+        }
+
+        public JobInfo build() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
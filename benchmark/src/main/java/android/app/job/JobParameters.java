@@ -0,0 +1,17 @@
+package android.app.job;
+
+import android.os.PersistableBundle;
+
+/**
+ * Compile-only stand-in for the framework's JobParameters.
+ */
+public class JobParameters {
+
+    public int getJobId() {
+        throw new UnsupportedOperationException();
+    }
+
+    public PersistableBundle getExtras() {
+        throw new UnsupportedOperationException();
+    }
+}
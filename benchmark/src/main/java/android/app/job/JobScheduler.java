@@ -0,0 +1,11 @@
+package android.app.job;
+
+/**
+ * Compile-only stand-in for the framework's JobScheduler.
+ */
+public abstract class JobScheduler {
+
+    public abstract int schedule(JobInfo job);
+
+    public abstract void cancel(int jobId);
+}
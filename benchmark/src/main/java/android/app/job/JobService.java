@@ -0,0 +1,17 @@
+package android.app.job;
+
+import android.app.Service;
+
+/**
+ * Compile-only stand-in for the framework's JobService.
+ */
+public abstract class JobService extends Service {
+
+    public abstract boolean onStartJob(JobParameters params);
+
+    public abstract boolean onStopJob(JobParameters params);
+
+    public final void jobFinished(JobParameters params, boolean wantsReschedule) {
+        throw new UnsupportedOperationException();
+    }
+}
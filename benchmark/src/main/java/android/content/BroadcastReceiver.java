@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * Compile-only stand-in for the framework's BroadcastReceiver.
+ */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+
+    public final boolean isInitialStickyBroadcast() {
+        throw new UnsupportedOperationException();
+    }
+}
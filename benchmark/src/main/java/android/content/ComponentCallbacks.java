@@ -0,0 +1,13 @@
+package android.content;
+
+import android.content.res.Configuration;
+
+/**
+ * Stands in for the framework's ComponentCallbacks.
+ */
+public interface ComponentCallbacks {
+
+    void onConfigurationChanged(Configuration newConfig);
+
+    void onLowMemory();
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+/**
+ * Stands in for the framework's ComponentCallbacks2.
+ */
+public interface ComponentCallbacks2 extends ComponentCallbacks {
+
+    int TRIM_MEMORY_UI_HIDDEN = 20;
+
+    void onTrimMemory(int level);
+}
@@ -0,0 +1,11 @@
+package android.content;
+
+/**
+ * Compile-only stand-in for the framework's ComponentName.
+ */
+public final class ComponentName {
+
+    public ComponentName(Context context, Class<?> cls) {
+        throw new UnsupportedOperationException();
+    }
+}
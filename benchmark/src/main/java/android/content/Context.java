@@ -0,0 +1,37 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+import java.io.File;
+
+/**
+ * Stands in for the framework's Context, with only the calls the SDK makes.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String JOB_SCHEDULER_SERVICE = "jobscheduler";
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract PackageManager getPackageManager();
+
+    public abstract File getFilesDir();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract File getDatabasePath(String name);
+
+    public abstract boolean deleteDatabase(String name);
+
+    public abstract Object getSystemService(String name);
+
+    public abstract void registerComponentCallbacks(ComponentCallbacks callback);
+
+    public abstract Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter);
+
+    public abstract void unregisterReceiver(BroadcastReceiver receiver);
+}
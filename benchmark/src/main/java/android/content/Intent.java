@@ -0,0 +1,14 @@
+package android.content;
+
+/**
+ * Compile-only stand-in for the framework's Intent.
+ */
+public class Intent {
+
+    public static final String ACTION_BATTERY_CHANGED = "android.intent.action.BATTERY_CHANGED";
+    public static final String ACTION_POWER_CONNECTED = "android.intent.action.ACTION_POWER_CONNECTED";
+
+    public int getIntExtra(String name, int defaultValue) {
+        throw new UnsupportedOperationException();
+    }
+}
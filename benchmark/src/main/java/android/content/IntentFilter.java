@@ -0,0 +1,19 @@
+package android.content;
+
+/**
+ * Compile-only stand-in for the framework's IntentFilter.
+ */
+public class IntentFilter {
+
+    public IntentFilter() {
+        throw new UnsupportedOperationException();
+    }
+
+    public IntentFilter(String action) {
+        throw new UnsupportedOperationException();
+    }
+
+    public final void addAction(String action) {
+        throw new UnsupportedOperationException();
+    }
+}
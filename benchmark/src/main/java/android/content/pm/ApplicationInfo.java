@@ -0,0 +1,11 @@
+package android.content.pm;
+
+import android.os.Bundle;
+
+/**
+ * Compile-only stand-in for the framework's ApplicationInfo.
+ */
+public class ApplicationInfo {
+
+    public Bundle metaData;
+}
@@ -0,0 +1,14 @@
+package android.content.pm;
+
+/**
+ * Compile-only stand-in for the framework's PackageManager; only upload jobs read the manifest.
+ */
+public abstract class PackageManager {
+
+    public static final int GET_META_DATA = 128;
+
+    public static class NameNotFoundException extends Exception {
+    }
+
+    public abstract ApplicationInfo getApplicationInfo(String packageName, int flags) throws NameNotFoundException;
+}
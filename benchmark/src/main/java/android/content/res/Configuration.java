@@ -0,0 +1,7 @@
+package android.content.res;
+
+/**
+ * Stands in for the framework's Configuration, which the SDK only receives.
+ */
+public class Configuration {
+}
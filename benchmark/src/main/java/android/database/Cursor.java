@@ -0,0 +1,19 @@
+package android.database;
+
+/**
+ * Compile-only stand-in for the framework's Cursor.
+ */
+public interface Cursor {
+
+    boolean moveToFirst();
+
+    boolean moveToNext();
+
+    int getInt(int column);
+
+    long getLong(int column);
+
+    String getString(int column);
+
+    void close();
+}
@@ -0,0 +1,41 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/**
+ * Compile-only stand-in for the framework's SQLiteDatabase; the SQLite event store needs a
+ * device or an emulator to benchmark.
+ */
+public final class SQLiteDatabase {
+
+    public interface CursorFactory {
+    }
+
+    public boolean enableWriteAheadLogging() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void execSQL(String sql) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    public SQLiteStatement compileStatement(String sql) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void beginTransaction() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setTransactionSuccessful() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void endTransaction() {
+        throw new UnsupportedOperationException();
+    }
+}
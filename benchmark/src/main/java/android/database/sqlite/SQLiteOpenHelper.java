@@ -0,0 +1,25 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Compile-only stand-in for the framework's SQLiteOpenHelper.
+ */
+public abstract class SQLiteOpenHelper {
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        throw new UnsupportedOperationException();
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+    public SQLiteDatabase getWritableDatabase() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        throw new UnsupportedOperationException();
+    }
+}
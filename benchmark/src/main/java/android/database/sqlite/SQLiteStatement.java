@@ -0,0 +1,31 @@
+package android.database.sqlite;
+
+/**
+ * Compile-only stand-in for the framework's SQLiteStatement.
+ */
+public final class SQLiteStatement {
+
+    public void bindString(int index, String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void bindLong(int index, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clearBindings() {
+        throw new UnsupportedOperationException();
+    }
+
+    public long executeInsert() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void execute() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        throw new UnsupportedOperationException();
+    }
+}
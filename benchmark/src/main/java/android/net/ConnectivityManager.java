@@ -0,0 +1,19 @@
+package android.net;
+
+/**
+ * Compile-only stand-in for the framework's ConnectivityManager; the benchmarks never check
+ * the network.
+ */
+public class ConnectivityManager {
+
+    public static final String CONNECTIVITY_ACTION = "android.net.conn.CONNECTIVITY_CHANGE";
+    public static final int TYPE_MOBILE = 0;
+
+    public NetworkInfo getActiveNetworkInfo() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean isActiveNetworkMetered() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,15 @@
+package android.net;
+
+/**
+ * Compile-only stand-in for the framework's NetworkInfo.
+ */
+public class NetworkInfo {
+
+    public boolean isConnected() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getType() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,22 @@
+package android.os;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Compile-only stand-in for the framework's AsyncTask; the benchmarks never upload.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPostExecute(Result result) {
+    }
+
+    public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+        throw new UnsupportedOperationException();
+    }
+
+    public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor executor, Params... params) {
+        throw new UnsupportedOperationException();
+    }
+}
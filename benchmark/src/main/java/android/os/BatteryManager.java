@@ -0,0 +1,9 @@
+package android.os;
+
+/**
+ * Compile-only stand-in for the framework's BatteryManager.
+ */
+public class BatteryManager {
+
+    public static final String EXTRA_PLUGGED = "plugged";
+}
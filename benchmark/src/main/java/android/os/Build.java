@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * Stands in for the framework's Build, as a Marshmallow device.
+ */
+public class Build {
+
+    private Build() {
+    }
+
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.M;
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB = 11;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int JELLY_BEAN = 16;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+    }
+}
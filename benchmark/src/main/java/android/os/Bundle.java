@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Compile-only stand-in for the framework's Bundle.
+ */
+public final class Bundle {
+
+    public String getString(String key) {
+        throw new UnsupportedOperationException();
+    }
+}
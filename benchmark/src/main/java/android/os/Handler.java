@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * Stands in for the framework's Handler, posting callbacks to a HandlerThread's Looper.
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postAtTime(r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return postAtTime(r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        looper.enqueue(r, uptimeMillis);
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(r);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+}
@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * Stands in for the framework's HandlerThread.  Its Looper exists from the start, so
+ * getLooper() never waits.  It is a daemon thread, so it does not keep the benchmark's JVM
+ * alive.
+ */
+public class HandlerThread extends Thread {
+
+    private final Looper looper = new Looper();
+
+    public HandlerThread(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    public HandlerThread(String name, int priority) {
+        this(name);
+    }
+
+    @Override
+    public void run() {
+        looper.loop();
+    }
+
+    public Looper getLooper() {
+        return looper;
+    }
+
+    public boolean quit() {
+        looper.quit();
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Stands in for the framework's Looper: runs the callbacks posted to a HandlerThread's handlers
+ * one at a time, in the order of the uptime they are due at, and those due at the same time in
+ * the order they were posted.
+ */
+public final class Looper {
+
+    private final PriorityQueue<Message> queue = new PriorityQueue<Message>();
+    private long posted;
+    private boolean quit;
+
+    private static final class Message implements Comparable<Message> {
+        final Runnable callback;
+        final long when;
+        final long sequence;
+
+        Message(Runnable callback, long when, long sequence) {
+            this.callback = callback;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    Looper() {
+    }
+
+    synchronized void enqueue(Runnable callback, long uptimeMillis) {
+        queue.add(new Message(callback, uptimeMillis, posted++));
+        notifyAll();
+    }
+
+    synchronized void remove(Runnable callback) {
+        Iterator<Message> messages = queue.iterator();
+        while (messages.hasNext()) {
+            if (messages.next().callback == callback) {
+                messages.remove();
+            }
+        }
+    }
+
+    synchronized void quit() {
+        quit = true;
+        notifyAll();
+    }
+
+    /**
+     * Runs callbacks as they fall due until quit() is called.
+     */
+    void loop() {
+        while (true) {
+            Runnable callback;
+            synchronized (this) {
+                while (true) {
+                    if (quit) {
+                        return;
+                    }
+                    Message next = queue.peek();
+                    long now = SystemClock.uptimeMillis();
+                    if (next != null && next.when <= now) {
+                        callback = queue.poll().callback;
+                        break;
+                    }
+                    try {
+                        wait(next == null ? 0 : next.when - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Compile-only stand-in for the framework's PersistableBundle; the benchmarks never schedule
+ * upload jobs.
+ */
+public final class PersistableBundle {
+
+    public void putLong(String key, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public long getLong(String key, long defaultValue) {
+        throw new UnsupportedOperationException();
+    }
+}
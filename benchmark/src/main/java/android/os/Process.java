@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Stands in for the framework's Process; thread priorities are left to the JVM.
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private Process() {
+    }
+
+    public static void setThreadPriority(int priority) {
+    }
+}
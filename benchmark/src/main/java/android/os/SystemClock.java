@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * Stands in for the framework's SystemClock.  The JVM has no deep sleep to leave out of the
+ * uptime, so both clocks are the same monotonic one.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,35 @@
+package android.util;
+
+/**
+ * Stands in for the framework's Log, which the SDK only uses to report errors and,
+ * in debug mode, what it is doing.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return println(tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println(tag, msg, tr);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(tag, msg, null);
+    }
+
+    private static int println(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
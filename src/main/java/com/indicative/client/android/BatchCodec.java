@@ -0,0 +1,244 @@
+package com.indicative.client.android;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionary-encoded batch format, sent with an "Indicative-Batch-Encoding: dict-v1"
+ * header.  Fields every event in the batch shares are sent once, and every event name, user ID,
+ * property name and property value is sent once in a dictionary and referred to by index:
+ *
+ * <pre>
+ * {"apiKey": "...", "encoding": "dict-v1",
+ *  "eventUniqueId": "user-1",           only if every event has the same one
+ *  "properties": {"appVersion": "2.1"}, properties every event has, with the same value
+ *  "events": [{"n": 0, "t": 1500000000000, "k": "...", "u": 1, "p": [2, 3, ...]}, ...],
+ *  "values": ["purchase", "user-1", "price", 9.99, ...]}
+ * </pre>
+ *
+ * In each event, "n" is the event name's index, "t" the event time, "k" the idempotency key,
+ * "u" the user ID's index when not shared, and "p" the indexes of the remaining properties'
+ * names and values in pairs.
+ */
+final class BatchCodec {
+
+    static final String ENCODING = "dict-v1";
+    static final String HEADER = "Indicative-Batch-Encoding";
+
+    private BatchCodec() {
+    }
+
+    /**
+     * Encodes queued event payloads as one batch request body.
+     *
+     * @param apiKey    The project's API key
+     * @param payloads  The events' JSON payloads, as queued
+     *
+     * @return          The request body
+     */
+    static String encode(String apiKey, List<String> payloads) throws IOException {
+        List<Map<String, PropertyValue>> events = new ArrayList<Map<String, PropertyValue>>(payloads.size());
+        for (String payload : payloads) {
+            PropertyValue event = PayloadReader.parse(payload);
+            if (event.getType() != PropertyValue.Type.OBJECT) {
+                throw new IOException("Queued event is not a JSON object");
+            }
+            events.add(event.objectValue());
+        }
+
+        PropertyValue sharedUniqueId = sharedUniqueId(events);
+        Map<String, PropertyValue> common = commonProperties(events);
+
+        PayloadWriter body = new PayloadWriter();
+        body.beginObject()
+                .name("apiKey").value(apiKey)
+                .name("encoding").value(ENCODING);
+        if (sharedUniqueId != null) {
+            body.name("eventUniqueId");
+            sharedUniqueId.writeJson(body);
+        }
+        if (!common.isEmpty()) {
+            body.name("properties");
+            PropertyValue.object(common).writeJson(body);
+        }
+
+        // The dictionary goes last, once every event has added to it.
+        Map<PropertyValue, Integer> indexes = new HashMap<PropertyValue, Integer>();
+        List<PropertyValue> values = new ArrayList<PropertyValue>();
+        body.name("events").beginArray();
+        for (Map<String, PropertyValue> event : events) {
+            body.beginObject();
+            for (Map.Entry<String, PropertyValue> field : event.entrySet()) {
+                String name = field.getKey();
+                PropertyValue value = field.getValue();
+                if (name.equals("eventName")) {
+                    body.name("n").value(index(value, indexes, values));
+                } else if (name.equals("eventTime")) {
+                    body.name("t");
+                    value.writeJson(body);
+                } else if (name.equals("idempotencyKey")) {
+                    body.name("k");
+                    value.writeJson(body);
+                } else if (name.equals("eventUniqueId")) {
+                    if (sharedUniqueId == null) {
+                        body.name("u").value(index(value, indexes, values));
+                    }
+                } else if (name.equals("properties")) {
+                    body.name("p").beginArray();
+                    for (Map.Entry<String, PropertyValue> property : value.objectValue().entrySet()) {
+                        if (!common.containsKey(property.getKey())) {
+                            body.value(index(PropertyValue.of(property.getKey()), indexes, values));
+                            body.value(index(property.getValue(), indexes, values));
+                        }
+                    }
+                    body.endArray();
+                } else if (name.equals("apiKey") && value.equals(PropertyValue.of(apiKey))) {
+                    // Sent once for the batch.
+                } else {
+                    // Anything else is passed through under its own name.
+                    body.name(name);
+                    value.writeJson(body);
+                }
+            }
+            body.endObject();
+        }
+        body.endArray();
+
+        body.name("values").beginArray();
+        for (PropertyValue value : values) {
+            value.writeJson(body);
+        }
+        return body.endArray().endObject().toString();
+    }
+
+    /**
+     * Decodes a batch written by {@link #encode} back into its events.  The SDK never reads
+     * batches back; this is the reference for what the format means, and the tests check
+     * encode() against it.
+     *
+     * @param body  The request body
+     *
+     * @return      Each event, as it was queued
+     */
+    static List<PropertyValue> decode(String body) throws IOException {
+        Map<String, PropertyValue> batch = PayloadReader.parse(body).objectValue();
+        if (!PropertyValue.of(ENCODING).equals(batch.get("encoding"))) {
+            throw new IOException("Not a " + ENCODING + " batch");
+        }
+        PropertyValue apiKey = batch.get("apiKey");
+        List<PropertyValue> values = batch.containsKey("values")
+                ? batch.get("values").arrayValue() : new ArrayList<PropertyValue>();
+        PropertyValue sharedUniqueId = batch.get("eventUniqueId");
+        Map<String, PropertyValue> common = batch.containsKey("properties")
+                ? batch.get("properties").objectValue() : new HashMap<String, PropertyValue>();
+
+        List<PropertyValue> events = new ArrayList<PropertyValue>();
+        PropertyValue encodedEvents = batch.get("events");
+        for (PropertyValue encoded : encodedEvents == null ? new ArrayList<PropertyValue>() : encodedEvents.arrayValue()) {
+            Map<String, PropertyValue> event = new LinkedHashMap<String, PropertyValue>();
+            Map<String, PropertyValue> properties = null;
+            event.put("apiKey", apiKey);
+            for (Map.Entry<String, PropertyValue> field : encoded.objectValue().entrySet()) {
+                String name = field.getKey();
+                PropertyValue value = field.getValue();
+                if (name.equals("n")) {
+                    event.put("eventName", lookUp(values, value));
+                } else if (name.equals("t")) {
+                    event.put("eventTime", value);
+                } else if (name.equals("k")) {
+                    event.put("idempotencyKey", value);
+                } else if (name.equals("u")) {
+                    event.put("eventUniqueId", lookUp(values, value));
+                } else if (name.equals("p")) {
+                    properties = new LinkedHashMap<String, PropertyValue>(common);
+                    Iterator<PropertyValue> pairs = value.arrayValue().iterator();
+                    while (pairs.hasNext()) {
+                        String key = lookUp(values, pairs.next()).stringValue();
+                        if (!pairs.hasNext()) {
+                            throw new IOException("Property " + key + " has no value");
+                        }
+                        properties.put(key, lookUp(values, pairs.next()));
+                    }
+                } else {
+                    event.put(name, value);
+                }
+            }
+            if (sharedUniqueId != null) {
+                event.put("eventUniqueId", sharedUniqueId);
+            }
+            if (properties != null) {
+                event.put("properties", PropertyValue.object(properties));
+            }
+            events.add(PropertyValue.object(event));
+        }
+        return events;
+    }
+
+    /**
+     * @return  The user ID every event has, or null if they do not all have the same one
+     */
+    private static PropertyValue sharedUniqueId(List<Map<String, PropertyValue>> events) {
+        PropertyValue shared = null;
+        for (Map<String, PropertyValue> event : events) {
+            PropertyValue id = event.get("eventUniqueId");
+            if (id == null || (shared != null && !shared.equals(id))) {
+                return null;
+            }
+            shared = id;
+        }
+        return shared;
+    }
+
+    /**
+     * @return  The properties every event has, with the same value in each
+     */
+    private static Map<String, PropertyValue> commonProperties(List<Map<String, PropertyValue>> events) {
+        Map<String, PropertyValue> common = null;
+        for (Map<String, PropertyValue> event : events) {
+            PropertyValue properties = event.get("properties");
+            if (properties == null || properties.getType() != PropertyValue.Type.OBJECT) {
+                return new HashMap<String, PropertyValue>();
+            }
+            Map<String, PropertyValue> members = properties.objectValue();
+            if (common == null) {
+                common = new LinkedHashMap<String, PropertyValue>(members);
+            } else {
+                Iterator<Map.Entry<String, PropertyValue>> entries = common.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, PropertyValue> entry = entries.next();
+                    if (!entry.getValue().equals(members.get(entry.getKey()))) {
+                        entries.remove();
+                    }
+                }
+            }
+            if (common.isEmpty()) {
+                break;
+            }
+        }
+        // With a single event, everything would be "common"; keep it in the event instead.
+        return common == null || events.size() < 2 ? new HashMap<String, PropertyValue>() : common;
+    }
+
+    private static long index(PropertyValue value, Map<PropertyValue, Integer> indexes, List<PropertyValue> values) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = values.size();
+            indexes.put(value, index);
+            values.add(value);
+        }
+        return index;
+    }
+
+    private static PropertyValue lookUp(List<PropertyValue> values, PropertyValue index) throws IOException {
+        long i = index.longValue();
+        if (index.getType() != PropertyValue.Type.LONG || i < 0 || i >= values.size()) {
+            throw new IOException("Bad dictionary index " + index);
+        }
+        return values.get((int) i);
+    }
+}
@@ -0,0 +1,134 @@
+package com.indicative.client.android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts increments per event name and property set over a time window, so a window's worth
+ * of them can be sent as one summary event per distinct key.  Keys live in an open-addressing
+ * table of 64-bit hashes, probed linearly; the name and properties stored alongside each hash
+ * settle collisions.
+ */
+final class EventAggregator {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The count for one event name and property set, in one window.
+     */
+    static final class Summary {
+        final String eventName;
+        final Map<String, PropertyValue> properties;
+        long count;
+        long windowStart;
+
+        Summary(String eventName, Map<String, PropertyValue> properties) {
+            this.eventName = eventName;
+            this.properties = properties;
+        }
+    }
+
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private Summary[] summaries = new Summary[INITIAL_CAPACITY];
+    private int size;
+
+    // Wall-clock time of the window's first increment, or 0 while the window is empty.
+    private long windowStart;
+
+    /**
+     * Adds to the count for an event name and property set.
+     *
+     * @param eventName     The event name
+     * @param properties    The properties, which must not be modified afterwards
+     * @param by            The amount to add
+     * @param now           The current wall-clock time
+     *
+     * @return              true if this was the first increment of a new window
+     */
+    boolean increment(String eventName, Map<String, PropertyValue> properties, long by, long now) {
+        long hash = hash(eventName, properties);
+        synchronized (this) {
+            int mask = summaries.length - 1;
+            int slot = (int) hash & mask;
+            Summary summary;
+            while ((summary = summaries[slot]) != null) {
+                if (hashes[slot] == hash && summary.eventName.equals(eventName)
+                        && summary.properties.equals(properties)) {
+                    summary.count += by;
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            summary = new Summary(eventName, properties);
+            summary.count = by;
+            hashes[slot] = hash;
+            summaries[slot] = summary;
+            size++;
+            if (size * 4 > summaries.length * 3) {
+                grow();
+            }
+
+            boolean first = windowStart == 0;
+            if (first) {
+                windowStart = now;
+            }
+            return first;
+        }
+    }
+
+    /**
+     * @return  The number of distinct keys counted in the current window
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Ends the current window.
+     *
+     * @return  Every key counted in the window, with its count
+     */
+    synchronized List<Summary> drain() {
+        List<Summary> drained = new ArrayList<Summary>(size);
+        for (Summary summary : summaries) {
+            if (summary != null) {
+                summary.windowStart = windowStart;
+                drained.add(summary);
+            }
+        }
+        hashes = new long[INITIAL_CAPACITY];
+        summaries = new Summary[INITIAL_CAPACITY];
+        size = 0;
+        windowStart = 0;
+        return drained;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        Summary[] oldSummaries = summaries;
+        hashes = new long[oldHashes.length * 2];
+        summaries = new Summary[oldSummaries.length * 2];
+        int mask = summaries.length - 1;
+        for (int i = 0; i < oldSummaries.length; i++) {
+            if (oldSummaries[i] != null) {
+                int slot = (int) oldHashes[i] & mask;
+                while (summaries[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                summaries[slot] = oldSummaries[i];
+            }
+        }
+    }
+
+    private static long hash(String eventName, Map<String, PropertyValue> properties) {
+        long h = eventName.hashCode() * 0x9E3779B97F4A7C15L + properties.hashCode();
+        // Mix the bits so the low ones, which pick the slot, depend on all of them.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
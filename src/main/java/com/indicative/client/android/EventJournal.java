@@ -0,0 +1,543 @@
+package com.indicative.client.android;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Append-only, segmented store for queued payloads.  Each payload is written as a
+ * length-prefixed UTF-8 record at the end of the newest segment file, so recording an event
+ * costs the same regardless of how many events are already queued.  A persisted read cursor
+ * marks how far the queue has been consumed; segments entirely behind it are deleted.
+ *
+ * Records are handed out in leases.  A leased record is not handed out again, but it only
+ * counts as consumed once its lease is acknowledged; the persisted cursor moves past a lease
+ * only when it and every lease before it have been acknowledged.  Leases live in memory, so
+ * after a restart everything not acknowledged is handed out again.
+ */
+final class EventJournal implements EventStore {
+
+    // Segments are rolled once they grow past this size.
+    private static final long SEGMENT_BYTES = 256 * 1024;
+
+    // Anything longer than this cannot be a valid record and marks a damaged segment.
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+
+    private final File dir;
+
+    // Read position: the segment and offset of the next unconsumed record.
+    private long readSegment;
+    private long readOffset;
+
+    // Lease position: the segment and offset of the next record not yet leased.
+    private long leaseSegment;
+    private long leaseOffset;
+
+    // Leases not yet behind the read cursor, oldest first.
+    private final LinkedList<Lease> leases = new LinkedList<Lease>();
+    private int leasedCount;
+
+    private long writeSegment;
+    private long writeOffset;
+    private FileOutputStream writer;
+
+    private int count;
+    private long sizeBytes;
+
+    // Payload bytes of unconsumed records, not counting their length prefixes.
+    private long liveBytes;
+
+    /**
+     * A bounded run of records read from the journal, and the position just past them.
+     */
+    private static final class Window {
+        final List<String> records;
+        final long endSegment;
+        final long endOffset;
+        final long bytes;
+
+        Window(List<String> records, long endSegment, long endOffset, long bytes) {
+            this.records = records;
+            this.endSegment = endSegment;
+            this.endOffset = endOffset;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A window of records handed out until it is acknowledged or released.
+     */
+    private static final class Lease extends Batch {
+        final long endSegment;
+        final long endOffset;
+
+        Lease(Window window, long expiresAt) {
+            super(window.records, window.bytes, expiresAt);
+            this.endSegment = window.endSegment;
+            this.endOffset = window.endOffset;
+        }
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if needed.  The newest segment is
+     * truncated after its last complete record, in case the process died mid-append.
+     *
+     * @param dir   The directory holding the segment files
+     */
+    EventJournal(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+
+        readCursor();
+
+        long[] segments = listSegments();
+        for (long segment : segments) {
+            if (segment < readSegment) {
+                segmentFile(segment).delete();
+            }
+        }
+        segments = listSegments();
+
+        if (segments.length == 0) {
+            writeSegment = readSegment;
+            writeOffset = 0;
+        } else {
+            writeSegment = segments[segments.length - 1];
+            if (writeSegment < readSegment) {
+                writeSegment = readSegment;
+            }
+        }
+
+        for (long segment : segments) {
+            if (segment < readSegment) {
+                continue;
+            }
+            if (segment == readSegment && readOffset > segmentFile(segment).length()) {
+                // The cursor points past the data on disk; resume from the end of the data.
+                readOffset = segmentFile(segment).length();
+                writeCursor();
+            }
+            long start = segment == readSegment ? readOffset : 0;
+            long end = scanSegment(segment, start);
+            File file = segmentFile(segment);
+            if (segment == writeSegment) {
+                if (end < file.length()) {
+                    truncate(file, end);
+                }
+                writeOffset = end;
+            }
+            sizeBytes += file.length();
+        }
+
+        writer = new FileOutputStream(segmentFile(writeSegment), true);
+        leaseSegment = readSegment;
+        leaseOffset = readOffset;
+    }
+
+    @Override
+    public synchronized void append(String payload) throws IOException {
+        append(Collections.singletonList(payload));
+    }
+
+    /**
+     * Appends payloads to the end of the journal in one write.  A segment may run past its
+     * nominal size by the rest of the payloads; the next append starts a new one.
+     */
+    @Override
+    public synchronized void append(List<String> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        byte[][] encoded = new byte[payloads.size()][];
+        int length = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            byte[] bytes = payloads.get(i).getBytes("UTF-8");
+            if (bytes.length > MAX_RECORD_BYTES) {
+                throw new IOException("Payload of " + bytes.length + " bytes is too large to queue");
+            }
+            encoded[i] = bytes;
+            length += 4 + bytes.length;
+        }
+
+        if (writeOffset >= SEGMENT_BYTES) {
+            rollSegment();
+        }
+
+        byte[] records = new byte[length];
+        long payloadBytes = 0;
+        int at = 0;
+        for (byte[] bytes : encoded) {
+            records[at] = (byte) (bytes.length >>> 24);
+            records[at + 1] = (byte) (bytes.length >>> 16);
+            records[at + 2] = (byte) (bytes.length >>> 8);
+            records[at + 3] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, records, at + 4, bytes.length);
+            at += 4 + bytes.length;
+            payloadBytes += bytes.length;
+        }
+        writer.write(records);
+
+        writeOffset += records.length;
+        sizeBytes += records.length;
+        liveBytes += payloadBytes;
+        count += encoded.length;
+    }
+
+    @Override
+    public synchronized Batch peekBatch(int maxRecords, int maxBytes, long expiresAt) throws IOException {
+        return lease(read(maxRecords, maxBytes, true), expiresAt);
+    }
+
+    @Override
+    public synchronized boolean ack(Batch batch) throws IOException {
+        Lease lease = (Lease) batch;
+        if (!lease.outstanding) {
+            return false;
+        }
+        lease.outstanding = false;
+        count = Math.max(0, count - lease.records.size());
+        liveBytes = Math.max(0, liveBytes - lease.bytes);
+        leasedCount -= lease.records.size();
+        advance();
+        return true;
+    }
+
+    /**
+     * Gives a lease's records up so they are handed out again.  They are appended to the tail
+     * before the lease is acknowledged, so a crash in between duplicates them rather than
+     * losing them.
+     */
+    @Override
+    public synchronized boolean release(Batch lease) throws IOException {
+        if (!lease.outstanding) {
+            return false;
+        }
+        append(lease.records);
+        return ack(lease);
+    }
+
+    @Override
+    public synchronized boolean isOutstanding(Batch lease) {
+        return lease.outstanding;
+    }
+
+    @Override
+    public synchronized boolean extend(Batch batch, long expiresAt) {
+        if (!batch.outstanding) {
+            return false;
+        }
+        batch.expiresAt = Math.max(batch.expiresAt, expiresAt);
+        return true;
+    }
+
+    @Override
+    public synchronized int releaseExpired(long now) throws IOException {
+        List<Lease> expired = new ArrayList<Lease>();
+        for (Lease lease : leases) {
+            if (lease.outstanding && lease.expiresAt <= now) {
+                expired.add(lease);
+            }
+        }
+        for (Lease lease : expired) {
+            release(lease);
+        }
+        return expired.size();
+    }
+
+    @Override
+    public synchronized Batch take(int maxRecords, int maxBytes) throws IOException {
+        Lease lease = lease(read(maxRecords, maxBytes, true), Long.MAX_VALUE);
+        ack(lease);
+        return lease;
+    }
+
+    /**
+     * Discards records from the head of the journal without reading their payloads.
+     */
+    @Override
+    public synchronized int skip(int maxRecords) throws IOException {
+        Lease lease = lease(read(maxRecords, Integer.MAX_VALUE, false), Long.MAX_VALUE);
+        ack(lease);
+        return lease.records.size();
+    }
+
+    private Lease lease(Window window, long expiresAt) {
+        Lease lease = new Lease(window, expiresAt);
+        if (!window.records.isEmpty()) {
+            leaseSegment = window.endSegment;
+            leaseOffset = window.endOffset;
+            leasedCount += window.records.size();
+            leases.add(lease);
+        }
+        return lease;
+    }
+
+    /**
+     * Reads records from the lease cursor onward without leasing them.
+     *
+     * @param maxRecords    The maximum number of records to return
+     * @param maxBytes      The maximum combined payload size to return; at least one record is
+     *                      always returned when the journal is not empty
+     * @param payloads      Whether to decode payloads, or only walk past them (returning nulls)
+     *
+     * @return              The records read, and the position just past them
+     */
+    private Window read(int maxRecords, int maxBytes, boolean payloads) throws IOException {
+        List<String> records = new ArrayList<String>();
+        long segment = leaseSegment;
+        long offset = leaseOffset;
+        int bytes = 0;
+
+        while (records.size() < maxRecords && segment <= writeSegment) {
+            File file = segmentFile(segment);
+            long end = segment == writeSegment ? writeOffset : file.length();
+            if (offset >= end) {
+                if (segment == writeSegment) {
+                    break;
+                }
+                segment++;
+                offset = 0;
+                continue;
+            }
+
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                in.seek(offset);
+                while (records.size() < maxRecords && offset + 4 <= end) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES || offset + 4 + length > end) {
+                        Log.v("Indicative", "Skipping damaged journal segment " + file.getName());
+                        offset = end;
+                        break;
+                    }
+                    if (!records.isEmpty() && bytes + length > maxBytes) {
+                        return new Window(records, segment, offset, bytes);
+                    }
+                    if (payloads) {
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+                        records.add(new String(payload, "UTF-8"));
+                    } else {
+                        in.seek(offset + 4 + length);
+                        records.add(null);
+                    }
+                    bytes += length;
+                    offset += 4 + length;
+                }
+                if (offset + 4 > end) {
+                    offset = end;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        return new Window(records, segment, offset, bytes);
+    }
+
+    /**
+     * Moves the read cursor past every acknowledged lease at the head of the queue, and
+     * deletes any segments that are now fully consumed.
+     */
+    private void advance() throws IOException {
+        if (leases.isEmpty() || leases.getFirst().outstanding) {
+            return;
+        }
+
+        long segment = readSegment;
+        long offset = readOffset;
+        while (!leases.isEmpty() && !leases.getFirst().outstanding) {
+            Lease lease = leases.removeFirst();
+            segment = lease.endSegment;
+            offset = lease.endOffset;
+        }
+
+        for (long consumed = readSegment; consumed < segment; consumed++) {
+            File file = segmentFile(consumed);
+            sizeBytes -= file.length();
+            file.delete();
+        }
+
+        readSegment = segment;
+        readOffset = offset;
+        writeCursor();
+
+        if (count == 0 && readSegment == writeSegment && writeOffset >= SEGMENT_BYTES) {
+            rollSegment();
+        }
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count - leasedCount;
+    }
+
+    @Override
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public long maxBytes() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasRoom(int payloadBytes) {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.v("Indicative", "Could not close event journal", e);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        writer.close();
+        if (readSegment == writeSegment && readOffset >= writeOffset) {
+            // Everything in the current segment has been consumed; drop it.
+            File file = segmentFile(writeSegment);
+            sizeBytes -= file.length();
+            file.delete();
+            readSegment = writeSegment + 1;
+            readOffset = 0;
+            writeCursor();
+        }
+        writeSegment++;
+        writeOffset = 0;
+        writer = new FileOutputStream(segmentFile(writeSegment), true);
+        if (leaseSegment < readSegment) {
+            leaseSegment = readSegment;
+            leaseOffset = 0;
+        }
+    }
+
+    /**
+     * Walks the record headers of a segment, counting complete records.
+     *
+     * @return  The offset just past the last complete record
+     */
+    private long scanSegment(long segment, long start) throws IOException {
+        File file = segmentFile(segment);
+        long length = file.length();
+        long offset = start;
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            while (offset + 4 <= length) {
+                in.seek(offset);
+                int recordLength = in.readInt();
+                if (recordLength < 0 || recordLength > MAX_RECORD_BYTES
+                        || offset + 4 + recordLength > length) {
+                    break;
+                }
+                offset += 4 + recordLength;
+                liveBytes += recordLength;
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+        return offset;
+    }
+
+    private void truncate(File file, long length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void readCursor() {
+        File file = new File(dir, CURSOR_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                readSegment = in.readLong();
+                readOffset = in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.v("Indicative", "Could not read journal cursor; starting from the oldest segment", e);
+            long[] segments = listSegments();
+            readSegment = segments.length > 0 ? segments[0] : 0;
+            readOffset = 0;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        File tmp = new File(dir, CURSOR_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeLong(readSegment);
+            out.writeLong(readOffset);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(dir, CURSOR_FILE))) {
+            throw new IOException("Could not update journal cursor");
+        }
+    }
+
+    private long[] listSegments() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        List<Long> segments = new ArrayList<Long>();
+        for (String name : names) {
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        Collections.sort(segments);
+        long[] result = new long[segments.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = segments.get(i);
+        }
+        return result;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%016x%s", segment, SEGMENT_SUFFIX));
+    }
+}
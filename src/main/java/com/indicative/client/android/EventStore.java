@@ -0,0 +1,159 @@
+package com.indicative.client.android;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable queue of serialized payloads waiting to be uploaded.  Records are handed out in
+ * batches that stay in the store until they are acknowledged; a batch that is released instead
+ * is handed out again later.  Batches only live in memory, so after a restart everything not
+ * acknowledged is handed out again.
+ *
+ * Implementations are safe to call from any thread.
+ */
+interface EventStore {
+
+    /**
+     * A run of records handed out by {@link #peekBatch}.
+     */
+    class Batch {
+        final List<String> records;
+        final long bytes;
+
+        // When the batch is released if it is still outstanding, and whether it is neither
+        // acknowledged nor released; both guarded by the store.
+        long expiresAt;
+        boolean outstanding;
+
+        /**
+         * @param records       The payloads in the batch
+         * @param bytes         The combined UTF-8 size of the records' payloads
+         * @param expiresAt     When the batch should be released if it is still outstanding
+         */
+        Batch(List<String> records, long bytes, long expiresAt) {
+            this.records = records;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+            this.outstanding = !records.isEmpty();
+        }
+    }
+
+    /**
+     * Appends a payload to the end of the queue.
+     *
+     * @param payload   The serialized payload
+     */
+    void append(String payload) throws IOException;
+
+    /**
+     * Appends payloads to the end of the queue, in order, in one write or transaction.  If this
+     * throws, none of them were appended.
+     *
+     * @param payloads  The serialized payloads
+     */
+    void append(List<String> payloads) throws IOException;
+
+    /**
+     * Hands out records from the head of the queue that are not already in an outstanding
+     * batch.
+     *
+     * @param maxRecords    The maximum number of records to hand out
+     * @param maxBytes      The maximum combined payload size to hand out; at least one record
+     *                      is always handed out when any are available
+     * @param expiresAt     When the batch should be released if it is still outstanding, in
+     *                      whatever clock the caller passes to releaseExpired()
+     *
+     * @return              The batch, which holds no records if none were available
+     */
+    Batch peekBatch(int maxRecords, int maxBytes, long expiresAt) throws IOException;
+
+    /**
+     * Removes a batch's records from the store.
+     *
+     * @return  false if the batch was already acknowledged or released
+     */
+    boolean ack(Batch batch) throws IOException;
+
+    /**
+     * Gives a batch's records up so they are handed out again.
+     *
+     * @return  false if the batch was already acknowledged or released
+     */
+    boolean release(Batch batch) throws IOException;
+
+    /**
+     * @return  true if the batch has been neither acknowledged nor released yet
+     */
+    boolean isOutstanding(Batch batch);
+
+    /**
+     * Puts off an outstanding batch's expiry, for a batch whose upload will be retried later.
+     * An expiry earlier than the batch's current one is ignored.
+     *
+     * @param expiresAt     The new expiry, in the clock passed to releaseExpired()
+     *
+     * @return              false if the batch was already acknowledged or released
+     */
+    boolean extend(Batch batch, long expiresAt);
+
+    /**
+     * Releases every outstanding batch that has passed its expiry.
+     *
+     * @param now   The current time, in the clock the batches' expiries were given in
+     *
+     * @return      The number of batches released
+     */
+    int releaseExpired(long now) throws IOException;
+
+    /**
+     * Removes and returns records from the head of the queue.
+     */
+    Batch take(int maxRecords, int maxBytes) throws IOException;
+
+    /**
+     * Discards records from the head of the queue, never touching outstanding batches.
+     *
+     * @return  The number of records discarded
+     */
+    int skip(int maxRecords) throws IOException;
+
+    /**
+     * @return  The number of records in the store, in outstanding batches or not
+     */
+    int count();
+
+    /**
+     * @return  The number of records not in an outstanding batch
+     */
+    int available();
+
+    /**
+     * @return  The combined UTF-8 size of the payloads of the records in the store, not
+     *          counting whatever framing the store adds around them
+     */
+    long liveBytes();
+
+    /**
+     * @return  The space the store occupies on disk, in bytes
+     */
+    long sizeBytes();
+
+    /**
+     * @return  The most record bytes the store can hold, or Long.MAX_VALUE if it has no limit
+     *          of its own
+     */
+    long maxBytes();
+
+    /**
+     * Whether {@link #append} has room right now for a payload of the given size.  Stores
+     * without a fixed size always have room.
+     *
+     * @param payloadBytes  The UTF-8 size of the payload
+     */
+    boolean hasRoom(int payloadBytes);
+
+    /**
+     * Releases the store's files.  The store must not be used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,135 @@
+package com.indicative.client.android;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-event-name sampling and rate limits, checked before an event is serialized or stored.
+ * A check is one map lookup, one random number and at most a compare-and-set, with no locks.
+ *
+ * Rate limits are token buckets kept as a single "theoretical arrival time" (the generic cell
+ * rate algorithm): each admitted event pushes it one interval further into the future, and an
+ * event is turned away while it is more than a burst's worth of intervals ahead of now.
+ */
+final class EventThrottle {
+
+    /**
+     * The sampling rate and rate limit for one event name.  Replaced whole when either changes;
+     * a replacement with the same rate limit shares the old one's arrival time, so changing
+     * the sampling rate does not refill the bucket.
+     */
+    private static final class Rule {
+        final double sampleRate;
+
+        // Nanoseconds per token, and how far ahead of now the arrival time may run; 0 means no
+        // rate limit.
+        final long intervalNanos;
+        final long toleranceNanos;
+        final AtomicLong arrivalTime;
+
+        Rule(double sampleRate, long intervalNanos, long toleranceNanos, AtomicLong arrivalTime) {
+            this.sampleRate = sampleRate;
+            this.intervalNanos = intervalNanos;
+            this.toleranceNanos = toleranceNanos;
+            this.arrivalTime = arrivalTime;
+        }
+
+        boolean isEmpty() {
+            return sampleRate >= 1 && intervalNanos == 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Rule> rules = new ConcurrentHashMap<String, Rule>();
+
+    // Lets events skip the lookup entirely while no rules are set.
+    private volatile boolean hasRules;
+
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * @param eventName     The event name
+     * @param rate          The fraction of events to keep, from 0 to 1
+     */
+    synchronized void setSampleRate(String eventName, double rate) {
+        Rule current = rules.get(eventName);
+        double sampleRate = Math.max(0, Math.min(1, rate));
+        if (current == null) {
+            put(eventName, new Rule(sampleRate, 0, 0, new AtomicLong(System.nanoTime())));
+        } else {
+            put(eventName, new Rule(sampleRate, current.intervalNanos, current.toleranceNanos,
+                    current.arrivalTime));
+        }
+    }
+
+    /**
+     * @param eventName         The event name
+     * @param eventsPerSecond   The sustained rate to allow; 0 or less removes the limit
+     * @param burst             How many events may arrive at once
+     */
+    synchronized void setRateLimit(String eventName, double eventsPerSecond, int burst) {
+        Rule current = rules.get(eventName);
+        double sampleRate = current == null ? 1 : current.sampleRate;
+        long interval = 0;
+        long tolerance = 0;
+        if (eventsPerSecond > 0) {
+            interval = Math.max(1, (long) (1000000000L / eventsPerSecond));
+            tolerance = interval * (Math.max(1, burst) - 1);
+        }
+        AtomicLong arrivalTime = current != null && current.intervalNanos == interval
+                && current.toleranceNanos == tolerance
+                ? current.arrivalTime : new AtomicLong(System.nanoTime());
+        put(eventName, new Rule(sampleRate, interval, tolerance, arrivalTime));
+    }
+
+    /**
+     * Decides whether to keep an event.
+     *
+     * @param eventName     The event name
+     *
+     * @return              0 if the event should be dropped, or else the sampling rate it was
+     *                      kept at (1 if it was not sampled)
+     */
+    double admit(String eventName) {
+        if (!hasRules || eventName == null) {
+            return 1;
+        }
+        Rule rule = rules.get(eventName);
+        if (rule == null) {
+            return 1;
+        }
+
+        if (rule.sampleRate < 1 && random.get().nextDouble() >= rule.sampleRate) {
+            return 0;
+        }
+
+        if (rule.intervalNanos > 0) {
+            long now = System.nanoTime();
+            while (true) {
+                long arrival = rule.arrivalTime.get();
+                long from = arrival - now > 0 ? arrival : now;
+                if (from - now > rule.toleranceNanos) {
+                    return 0;
+                }
+                if (rule.arrivalTime.compareAndSet(arrival, from + rule.intervalNanos)) {
+                    break;
+                }
+            }
+        }
+        return rule.sampleRate;
+    }
+
+    private void put(String eventName, Rule rule) {
+        if (rule.isEmpty()) {
+            rules.remove(eventName);
+        } else {
+            rules.put(eventName, rule);
+        }
+        hasRules = !rules.isEmpty();
+    }
+}
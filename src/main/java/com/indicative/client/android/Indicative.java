@@ -1,69 +1,292 @@
 package com.indicative.client.android;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Standalone client for Indicative's REST API.  Events are stored in SharedPreferences, 
- * then periodically sent to us in a background thread (SendEventsTimerThread).  
+ * Standalone client for Indicative's REST API.  Events are appended to a journal in the app's 
+ * files directory, then sent to us in a background thread (SendEventsTimerThread) once enough 
+ * have been queued, once the oldest has waited long enough, or when the app goes to the background.  
+ * launch() returns right away and loads storage on a background thread; calls made before that
+ * finishes are held in memory and replayed in order.
  */
 
 public class Indicative {
 
-	private static Indicative instance;
+	private static final Indicative instance = new Indicative();
+
+	// Every event and alias carries a key unique to it, so the server can drop copies that
+	// were uploaded more than once.
+	private static final String IDEMPOTENCY_KEY_PREFIX = newIdempotencyKeyPrefix();
+	private static final AtomicLong idempotencyKeyCounter = new AtomicLong();
 	
 	// Enable this to see some basic logging.
 	private static final boolean debug = false;
 	
-	// How long to wait before sending each batch of events. 
-	private static final int SEND_EVENTS_TIMER_SECONDS = 60;
+	// Default flush policy: send once this many events are queued, or once the oldest queued
+	// event has waited this long.
+	private static final int DEFAULT_FLUSH_QUEUE_SIZE = 50;
+	private static final int DEFAULT_FLUSH_MAX_AGE_SECONDS = 60;
+
+    // Added to events kept by sampling, with the fraction of them that was kept.
+    private static final String SAMPLE_RATE_PROPERTY = "indicativeSampleRate";
+
+    // With network-aware uploads, a backlog this large waits for an unmetered network or charging.
+    private static final int DEFAULT_LARGE_BACKLOG_EVENTS = 1000;
+
+    // Counts from increment() are sent as one summary event per key once per window.
+    private static final int DEFAULT_AGGREGATION_WINDOW_SECONDS = 60;
+    private static final String AGGREGATE_COUNT_PROPERTY = "indicativeCount";
+    private static final String AGGREGATE_WINDOW_START_PROPERTY = "indicativeWindowStart";
+
+    // Default limits for a single batched upload request.
+    private static final int DEFAULT_MAX_BATCH_EVENTS = 100;
+    private static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+
+    // Upper bound on how much of the queue a single flush reads into memory.
+    private static final int FLUSH_WINDOW_EVENTS = 1000;
+    private static final int FLUSH_WINDOW_BYTES = 1024 * 1024;
+
+    // Uploads run on their own small pool so they never hold up the app's AsyncTasks.  A flush
+    // stops handing out work once this many uploads are queued or running.
+    private static final int UPLOAD_THREADS = 2;
+    private static final int MAX_PENDING_UPLOADS = 8;
+
+    // Default limits on the event queue, past which the drop policy applies.
+    private static final int DEFAULT_MAX_QUEUED_EVENTS = 50000;
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 10 * 1024 * 1024;
+
+    // Queued events handed to an upload are handed out again if the upload has not finished
+    // with them after this long.
+    private static final long UPLOAD_LEASE_MS = 5 * 60 * 1000;
+
+    // Events that were given up on are kept until this much is stored, then discarded.
+    private static final long MAX_DEAD_LETTER_BYTES = 1024 * 1024;
 
+    // Default number of events that can wait for the recorder thread in async mode.
+    private static final int DEFAULT_ASYNC_RECORD_CAPACITY = 1024;
+
+    // At most this many events recorded before storage has loaded are held in memory.
+    private static final int MAX_DEFERRED_EVENTS = 1000;
+
+    // Request bodies smaller than this are not worth compressing by default.
+    private static final int DEFAULT_GZIP_THRESHOLD_BYTES = 1024;
+
+    // Where each storage backend keeps queued events.  SharedPreferences is where events were
+    // queued before the journal existed.
     private static final String EVENT_PREFS = "indicative_events";
+    private static final String EVENT_JOURNAL_DIR = "indicative_events";
+    private static final String EVENT_DATABASE = "indicative_events.db";
+    private static final String EVENT_RING_FILE = "indicative_events.ring";
+    private static final int EVENT_RING_BYTES = 8 * 1024 * 1024;
+    private static final String DEAD_LETTER_DIR = "indicative_dead_letters";
     private static final String UNIQUE_PREFS = "indicative_unique";
     private static final String PROPS_PREFS = "indicative_prop_cache";
 
-	private Context context;
-	private String apiKey;
+    // An upload job that starts the process itself launches the SDK with the API key declared
+    // under this meta-data name in the app's manifest, or else the one launch() last saved in
+    // UNIQUE_PREFS.
+    static final String API_KEY_META_DATA = "com.indicative.client.android.API_KEY";
+    private static final String API_KEY_PREF = "apiKey";
+
+    // Common properties are saved here, in PropertyValue's binary form.  PROPS_PREFS is where
+    // earlier versions kept them.
+    private static final String PROPS_FILE = "indicative_props";
+    private static final int PROPS_FILE_VERSION = 1;
+
+    // Versions of the common properties that queued events refer to, one file each.
+    private static final String PROPS_VERSIONS_DIR = "indicative_props_versions";
 
-    private SharedPreferences eventPrefs;
+	private volatile Context context;
+	private volatile String apiKey;
+
+    private volatile StorageBackend storageBackend = StorageBackend.JOURNAL;
+    private volatile EventStore eventStore;
+    private volatile EventStore deadLetters;
+    private volatile PropertySnapshots propertySnapshots;
     private SharedPreferences uniquePrefs;
-    private SharedPreferences propsPrefs;
+
+    // Calls that need storage, made after launch() but before storage finished loading.  They
+    // are replayed in order on the worker thread; everything here is guarded by readyLock.
+    private final Object readyLock = new Object();
+    private List<Runnable> deferredCalls = new ArrayList<Runnable>();
+    private int deferredEvents;
+    private boolean loadStarted;
+    private volatile boolean ready;
+    private volatile Thread replayThread;
+
+    // Immutable snapshot of the common properties, replaced on every change.
+    private final AtomicReference<Map<String, PropertyValue>> commonProps =
+            new AtomicReference<Map<String, PropertyValue>>(Collections.<String, PropertyValue>emptyMap());
+
+    // Immutable snapshot of the user's IDs, replaced on every change.
+    private final AtomicReference<Identity> identity = new AtomicReference<Identity>(new Identity(null, null));
+
+    // Set while a save of the user's IDs is waiting to run on the worker thread.
+    private final AtomicBoolean identitySavePending = new AtomicBoolean();
+
+    // Set while a save of the common properties is waiting to run on the worker thread.
+    private final AtomicBoolean propsSavePending = new AtomicBoolean();
+
+    // Background thread that runs the flush timer and every storage write callers should not
+    // wait on, so none of it happens on the main looper.
+    private HandlerThread workerThread;
+    private volatile Handler workerHandler;
+
+    private boolean batchUploads = false;
+    private int maxBatchEvents = DEFAULT_MAX_BATCH_EVENTS;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    // Request bodies at least this large are gzipped; negative disables compression.
+    private int gzipThresholdBytes = -1;
+
+    // Whether event batches are sent in BatchCodec's dictionary-encoded format.
+    private volatile boolean dictionaryBatches = false;
+
+    private final AtomicReference<RecordEventsThread> recorder = new AtomicReference<RecordEventsThread>();
+
+    private final ThreadPoolExecutor uploadExecutor = createUploadExecutor();
+    private final AtomicInteger pendingUploads = new AtomicInteger();
+    private final UploadBackoff uploadBackoff = new UploadBackoff();
+
+    // Failed uploads waiting out their backoff before they are retried.  They keep their place
+    // in the upload pipeline, but are not in flight.
+    private final AtomicInteger retryingUploads = new AtomicInteger();
+
+    private volatile int maxQueuedEvents = DEFAULT_MAX_QUEUED_EVENTS;
+    private volatile long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private volatile DropPolicy dropPolicy = DropPolicy.DROP_OLDEST;
+
+    // Listener callbacks are posted to the worker thread.
+    private final MetricsRecorder metrics = new MetricsRecorder(new Executor() {
+        @Override
+        public void execute(Runnable callback) {
+            startWorker().post(callback);
+        }
+    });
+    private final EventThrottle throttle = new EventThrottle();
+
+    private final EventAggregator aggregator = new EventAggregator();
+    private volatile long aggregationWindowMs = DEFAULT_AGGREGATION_WINDOW_SECONDS * 1000L;
+    private final Runnable aggregateFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushAggregates();
+        }
+    };
+
+    // Events seen since the queue last filled up; guarded by the event journal's lock.
+    private long overflowSeen;
+    private final Random sampler = new Random();
+
+    private volatile int flushQueueSize = DEFAULT_FLUSH_QUEUE_SIZE;
+    private volatile long flushMaxAgeMs = DEFAULT_FLUSH_MAX_AGE_SECONDS * 1000L;
+    private volatile boolean flushOnBackground = true;
+
+    // Set while a flush is running, and when another is asked for in the meantime.
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    // Hold flushes back until the network and power state allow them.
+    private volatile boolean networkAwareUploads = false;
+    private volatile int largeBacklogEvents = DEFAULT_LARGE_BACKLOG_EVENTS;
+    // Created the first time a flush checks with it.
+    private volatile UploadScheduler uploadScheduler;
+
+    // Run once no uploads are in flight; guarded by its own lock.
+    private final List<Runnable> idleCallbacks = new ArrayList<Runnable>();
+
+    // The flush timer is only armed while events are queued.  scheduledFlushAt is the uptime it
+    // will next fire at, or 0 if it is idle.
+    private Handler timerHandler;
+    private SendEventsTimerThread timer;
+    private volatile long scheduledFlushAt;
 
 	private Indicative() {
 	}
 
+    /**
+     * Where queued events are kept.
+     */
+    public enum StorageBackend {
+        /** Append-only segment files in the app's files directory (the default). */
+        JOURNAL,
+        /** A SQLite database in write-ahead-log mode. */
+        SQLITE,
+        /** A fixed-size ring file mapped into memory; it holds up to 8MB of events. */
+        MAPPED_FILE,
+        /** A SharedPreferences file, as earlier versions of the SDK used. */
+        SHARED_PREFERENCES
+    }
+
+    /**
+     * What to do with events recorded while the queue is at its limit.
+     */
+    public enum DropPolicy {
+        /** Discard the oldest queued events to make room. */
+        DROP_OLDEST,
+        /** Discard the newly recorded event. */
+        DROP_NEWEST,
+        /**
+         * Keep a random sample of the events recorded while full: each is admitted, replacing
+         * the oldest queued event, with a probability that falls as more overflow.
+         */
+        SAMPLE
+    }
+
 	/**
 	 * Instantiates the static Indicative instance and returns it.
 	 * 
 	 * @return 	The static Indicative instance
 	 */
 	public static Indicative getInstance() {
-		if (instance == null) {
-			instance = new Indicative();
-		}
 		return instance;
 	}
 
     /**
-     * Initializes the static Indicative instance with the project's API Key.
+     * Initializes the static Indicative instance with the project's API Key.  Returns right away;
+     * queued events, IDs and common properties are loaded on a background thread, and events
+     * recorded in the meantime are held in memory until they have been.
      *
      * @param context	The app context
      * @param apiKey	Your project's API Key
@@ -71,67 +294,671 @@ public class Indicative {
      * @return 	The static Indicative instance
      */
     public static Indicative launch(Context context, String apiKey) {
-        Indicative instance = getInstance();
+        final Indicative instance = getInstance();
         instance.apiKey = apiKey;
         instance.context = context;
 
-        instance.eventPrefs = context.getSharedPreferences(
-                EVENT_PREFS, Context.MODE_PRIVATE);
+        synchronized (instance.readyLock) {
+            if (instance.loadStarted) {
+                return instance;
+            }
+            instance.loadStarted = true;
+        }
+
+        instance.startWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                instance.loadStorage();
+            }
+        });
+
+        return instance;
+    }
 
-        instance.uniquePrefs = context.getSharedPreferences(
-                UNIQUE_PREFS, Context.MODE_PRIVATE);
+    /**
+     * Opens the event journals and SharedPreferences, then replays the calls made while they
+     * were loading.  Runs once, on the worker thread.
+     */
+    private void loadStorage() {
+        StorageBackend backend = storageBackend;
+        eventStore = openEventStore(context, backend);
+        if (eventStore == null && backend != StorageBackend.JOURNAL) {
+            backend = StorageBackend.JOURNAL;
+            eventStore = openEventStore(context, backend);
+        }
+        deadLetters = openEventJournal(context, DEAD_LETTER_DIR);
+        migrateEventStores(context, backend);
 
-        instance.propsPrefs = context.getSharedPreferences(
-                PROPS_PREFS, Context.MODE_PRIVATE);
+        uniquePrefs = context.getSharedPreferences(UNIQUE_PREFS, Context.MODE_PRIVATE);
+        if (apiKey != null && !apiKey.equals(uniquePrefs.getString(API_KEY_PREF, null))) {
+            uniquePrefs.edit().putString(API_KEY_PREF, apiKey).apply();
+        }
 
-        setUUIDInUniquePrefs();
+        commonProps.set(Collections.unmodifiableMap(loadCommonProperties(context)));
+        propertySnapshots = new PropertySnapshots(new File(context.getFilesDir(), PROPS_VERSIONS_DIR));
 
-        instance.scheduleEventsTimer();
+        loadIdentity();
 
-        return instance;
+        scheduleEventsTimer();
+        replayDeferredCalls();
+    }
+
+    /**
+     * Holds a call back until storage has loaded, if it has not yet.  Once it has, and for calls
+     * made while replaying held calls, nothing is held.
+     *
+     * @param call      The call to make once storage has loaded
+     * @param isEvent   Whether the call records an event; those are dropped once too many are held
+     *
+     * @return          true if the call was held (or dropped) and should not be made now
+     */
+    private boolean deferUntilReady(Runnable call, boolean isEvent) {
+        if (ready || Thread.currentThread() == replayThread) {
+            return false;
+        }
+        synchronized (readyLock) {
+            if (ready || !loadStarted) {
+                return false;
+            }
+            if (isEvent) {
+                if (deferredEvents >= MAX_DEFERRED_EVENTS) {
+                    metrics.onEventsDropped(1);
+                    Log.v("Indicative", "Too many events recorded before storage loaded; dropping event");
+                    return true;
+                }
+                deferredEvents++;
+            }
+            deferredCalls.add(call);
+            return true;
+        }
+    }
+
+    /**
+     * Makes the calls held back by deferUntilReady(), in the order they were made, until none
+     * are left, then lets later calls through directly.
+     */
+    private void replayDeferredCalls() {
+        replayThread = Thread.currentThread();
+        try {
+            while (true) {
+                List<Runnable> calls;
+                synchronized (readyLock) {
+                    if (deferredCalls.isEmpty()) {
+                        ready = true;
+                        return;
+                    }
+                    calls = deferredCalls;
+                    deferredCalls = new ArrayList<Runnable>();
+                    deferredEvents = 0;
+                }
+                for (Runnable call : calls) {
+                    try {
+                        call.run();
+                    } catch (RuntimeException e) {
+                        reportError("Could not replay call made before storage loaded", e);
+                    }
+                }
+            }
+        } finally {
+            replayThread = null;
+        }
     }
 
 	/**
-	 * Schedules the timer to periodically send events (once every 60 seconds by default)
+	 * Starts the timer that sends queued events, and sends anything already queued.  After that
+	 * the timer only runs while events are queued (see setFlushPolicy()).
 	 */
 	public void scheduleEventsTimer() {
-		Handler handler = new Handler();
-		handler.post(new SendEventsTimerThread(context, handler));
+		synchronized (this) {
+			if (timerHandler == null) {
+				timerHandler = startWorker();
+				timer = new SendEventsTimerThread(context, timerHandler);
+				registerBackgroundCallback();
+			}
+		}
+		requestFlush(0);
 	}
 
+    /**
+     * Chooses where queued events are kept.  Must be called before launch(); events queued in
+     * any other backend are moved into the chosen one when the SDK launches.
+     *
+     * @param backend   The storage backend
+     */
+    public static void setStorageBackend(StorageBackend backend) {
+        Indicative instance = getInstance();
+        synchronized (instance.readyLock) {
+            if (instance.loadStarted) {
+                Log.v("Indicative", "Storage backend must be chosen before launch(); keeping " + instance.storageBackend);
+                return;
+            }
+            instance.storageBackend = backend != null ? backend : StorageBackend.JOURNAL;
+        }
+    }
+
+    /**
+     * Limits how many events, and how many bytes of them, can be queued on disk.
+     *
+     * @param maxEvents     The maximum number of queued events
+     * @param maxBytes      The maximum size of the queued events' JSON as UTF-8, in bytes
+     * @param policy        What to do with events recorded while the queue is full
+     */
+    public static void setQueueLimits(int maxEvents, long maxBytes, DropPolicy policy) {
+        Indicative instance = getInstance();
+        instance.maxQueuedEvents = maxEvents > 0 ? maxEvents : DEFAULT_MAX_QUEUED_EVENTS;
+        instance.maxQueuedBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_QUEUED_BYTES;
+        instance.dropPolicy = policy != null ? policy : DropPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * Returns the number of events discarded because the queue was full.
+     */
+    public static long getDroppedEventCount() {
+        return getInstance().metrics.droppedEvents();
+    }
+
+    /**
+     * Keeps only a random fraction of the events with a given name.  Each kept event carries
+     * the rate in its "indicativeSampleRate" property, so counts can be scaled back up.  The
+     * check is made before the event is serialized or stored.
+     *
+     * @param eventName     The event name
+     * @param rate          The fraction to keep, from 0 (none) to 1 (all, which stops sampling)
+     */
+    public static void setSampleRate(String eventName, double rate) {
+        if (eventName != null) {
+            getInstance().throttle.setSampleRate(eventName, rate);
+        }
+    }
+
+    /**
+     * Limits how often events with a given name are recorded.  Events over the limit are
+     * dropped before they are serialized or stored.
+     *
+     * @param eventName         The event name
+     * @param eventsPerSecond   The sustained rate to allow; 0 or less removes the limit
+     * @param burst             How many events may be recorded at once before the rate applies
+     */
+    public static void setRateLimit(String eventName, double eventsPerSecond, int burst) {
+        if (eventName != null) {
+            getInstance().throttle.setRateLimit(eventName, eventsPerSecond, burst);
+        }
+    }
+
+    /**
+     * Registers a listener to hear about flushes, uploads, retries, dropped events and errors.
+     *
+     * @param listener  The listener, or null to stop listening
+     */
+    public static void setListener(IndicativeListener listener) {
+        getInstance().metrics.setListener(listener);
+    }
+
+    /**
+     * Returns a snapshot of the SDK's counters: the queue's depth and size on disk, flush sizes,
+     * upload latencies and status codes, retries, dropped events, and the time recordEvent()
+     * spends on the caller's thread.
+     */
+    public static IndicativeMetrics getMetrics() {
+        Indicative instance = getInstance();
+        EventStore store = instance.eventStore;
+        EventStore deadLetters = instance.deadLetters;
+        return instance.metrics.snapshot(store == null ? 0 : store.count(),
+                store == null ? 0 : store.liveBytes(),
+                store == null ? 0 : store.sizeBytes(),
+                deadLetters == null ? 0 : deadLetters.count());
+    }
+
+    /**
+     * Starts the SDK's background worker thread, if it is not running yet.
+     *
+     * @return  A Handler for the worker thread
+     */
+    private Handler startWorker() {
+        Handler handler = workerHandler;
+        if (handler != null) {
+            return handler;
+        }
+        synchronized (this) {
+            if (workerThread == null) {
+                workerThread = new HandlerThread("IndicativeWorker", Process.THREAD_PRIORITY_BACKGROUND);
+                workerThread.start();
+                workerHandler = new Handler(workerThread.getLooper());
+            }
+            return workerHandler;
+        }
+    }
+
+    /**
+     * Sets when queued events are sent.
+     *
+     * @param maxQueuedEvents       Send as soon as this many events are queued
+     * @param maxEventAgeSeconds    Send once the oldest queued event has waited this long
+     * @param flushOnBackground     Send as soon as the app goes to the background
+     */
+    public static void setFlushPolicy(int maxQueuedEvents, int maxEventAgeSeconds, boolean flushOnBackground) {
+        Indicative instance = getInstance();
+        instance.flushQueueSize = maxQueuedEvents > 0 ? maxQueuedEvents : DEFAULT_FLUSH_QUEUE_SIZE;
+        instance.flushMaxAgeMs = (maxEventAgeSeconds > 0 ? maxEventAgeSeconds : DEFAULT_FLUSH_MAX_AGE_SECONDS) * 1000L;
+        instance.flushOnBackground = flushOnBackground;
+    }
+
+    /**
+     * Holds flushes back while there is no network, so the radio is not woken for uploads that
+     * cannot succeed, and holds a backlog of at least largeBacklogEvents back until the device
+     * is on an unmetered network or charging, for up to six hours.  The SDK is woken when
+     * conditions change; on Lollipop and later this is done with a JobScheduler job that
+     * survives the process dying.
+     *
+     * @param enabled               Whether to hold flushes back
+     * @param largeBacklogEvents    The backlog that waits for an unmetered network or charging;
+     *                              0 or less sends backlogs of any size on any network
+     */
+    public static void setNetworkAwareUploads(boolean enabled, int largeBacklogEvents) {
+        Indicative instance = getInstance();
+        instance.largeBacklogEvents = largeBacklogEvents;
+        instance.networkAwareUploads = enabled;
+    }
+
+    /**
+     * Returns the upload scheduler if network-aware uploads are on, creating it if needed.
+     */
+    private UploadScheduler getUploadScheduler() {
+        if (!networkAwareUploads || context == null) {
+            return null;
+        }
+        UploadScheduler scheduler = uploadScheduler;
+        return scheduler != null ? scheduler : createUploadScheduler();
+    }
+
+    private synchronized UploadScheduler createUploadScheduler() {
+        if (uploadScheduler == null) {
+            uploadScheduler = new UploadScheduler(context, new Runnable() {
+                @Override
+                public void run() {
+                    requestFlush(0);
+                }
+            });
+        }
+        return uploadScheduler;
+    }
+
+    /**
+     * Sends queued events for an upload job, launching the SDK first if the process was started
+     * to run the job.
+     *
+     * @param context           The app context
+     * @param jobId             The ID of the job
+     * @param deferredSince     When the backlog started waiting for an unmetered network, or 0
+     * @param finished          Run once the uploads have finished
+     *
+     * @return                  false if there is nothing to do
+     */
+    static boolean flushFromJob(Context context, int jobId, long deferredSince, final Runnable finished) {
+        final Indicative instance = getInstance();
+        if (instance.context == null) {
+            String apiKey = configuredApiKey(context);
+            if (apiKey == null) {
+                Log.v("Indicative", "No API key to send queued events with; they wait for the app to launch the SDK");
+                return false;
+            }
+            launch(context, apiKey);
+        }
+        instance.networkAwareUploads = true;
+        UploadScheduler scheduler = instance.getUploadScheduler();
+        if (scheduler != null) {
+            scheduler.onJobStarted(jobId);
+            scheduler.restoreDeferral(deferredSince);
+        }
+
+        // Posted after launch()'s storage load, so the queue is open by the time it runs.
+        instance.startWorker().post(new Runnable() {
+            @Override
+            public void run() {
+                instance.sendAllEvents(instance.context);
+                instance.runWhenUploadsIdle(finished);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Finds the API key for an upload job that started the process itself: the one declared in
+     * the app's manifest under API_KEY_META_DATA, or else the one launch() was last called with.
+     *
+     * @return  The API key, or null if there is none
+     */
+    private static String configuredApiKey(Context context) {
+        try {
+            ApplicationInfo app = context.getPackageManager()
+                    .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            String apiKey = app.metaData == null ? null : app.metaData.getString(API_KEY_META_DATA);
+            if (apiKey != null) {
+                return apiKey;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // The app's own package is always there.
+        }
+        return context.getSharedPreferences(UNIQUE_PREFS, Context.MODE_PRIVATE).getString(API_KEY_PREF, null);
+    }
+
+    /**
+     * Runs a callback once no uploads are in flight, which may be right away.
+     */
+    private void runWhenUploadsIdle(Runnable callback) {
+        synchronized (idleCallbacks) {
+            if (pendingUploads.get() > 0) {
+                idleCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Arms the flush timer to fire within the given delay.  A timer that is already due to fire
+     * sooner is left alone.
+     *
+     * @param delayMs   How long from now the flush should happen
+     */
+    private void requestFlush(long delayMs) {
+        long at = SystemClock.uptimeMillis() + delayMs;
+        long scheduled = scheduledFlushAt;
+        if ((scheduled != 0 && scheduled <= at) || timerHandler == null) {
+            return;
+        }
+        synchronized (timer) {
+            scheduled = scheduledFlushAt;
+            if (scheduled != 0 && scheduled <= at) {
+                return;
+            }
+            scheduledFlushAt = at;
+            timerHandler.removeCallbacks(timer);
+            timerHandler.postAtTime(timer, at);
+        }
+    }
+
+    /**
+     * Applies the flush policy after an event has been queued.
+     *
+     * @param queued    The number of events now queued
+     */
+    private void onEventQueued(int queued) {
+        UploadScheduler scheduler = uploadScheduler;
+        if (scheduler != null && networkAwareUploads && scheduler.isWaiting()) {
+            // Flushed once the scheduler is woken.
+            return;
+        }
+        long delay = queued >= flushQueueSize ? 0 : flushMaxAgeMs;
+        requestFlush(Math.max(delay, uploadBackoff.remainingDelayMs(SystemClock.elapsedRealtime())));
+    }
+
+    /**
+     * Sends queued events when the app's UI is no longer visible.
+     */
+    private void registerBackgroundCallback() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN && flushOnBackground) {
+                    if (aggregator.size() > 0) {
+                        startWorker().post(aggregateFlush);
+                    }
+                    requestFlush(0);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        });
+    }
+
+    /**
+     * Sends queued events in batches instead of one request per event.  Events and aliases
+     * are never mixed within a batch.
+     *
+     * @param maxEvents     The maximum number of payloads packed into one request
+     * @param maxBytes      The maximum size, in bytes, of the payloads packed into one request
+     */
+    public static void enableBatchUploads(int maxEvents, int maxBytes) {
+        Indicative instance = getInstance();
+        instance.maxBatchEvents = maxEvents > 0 ? maxEvents : DEFAULT_MAX_BATCH_EVENTS;
+        instance.maxBatchBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BATCH_BYTES;
+        instance.batchUploads = true;
+    }
+
+    /**
+     * Sends queued events in batches, using the default batch limits.
+     */
+    public static void enableBatchUploads() {
+        enableBatchUploads(DEFAULT_MAX_BATCH_EVENTS, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * Goes back to sending each queued event in its own request.
+     */
+    public static void disableBatchUploads() {
+        getInstance().batchUploads = false;
+    }
+
+    /**
+     * Compresses upload request bodies with gzip once they reach the given size.
+     *
+     * @param minBytes  The smallest body, in bytes, that is compressed
+     */
+    public static void enableGzipCompression(int minBytes) {
+        getInstance().gzipThresholdBytes = Math.max(0, minBytes);
+    }
+
+    /**
+     * Compresses upload request bodies of 1KB or more with gzip.
+     */
+    public static void enableGzipCompression() {
+        enableGzipCompression(DEFAULT_GZIP_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Sends upload request bodies uncompressed (the default).
+     */
+    public static void disableGzipCompression() {
+        getInstance().gzipThresholdBytes = -1;
+    }
+
+    /**
+     * Sends event batches in a dictionary-encoded format: properties every event in the batch
+     * shares are sent once, and each distinct name and value is sent once and referred to by
+     * index.  Batches of events with many repeated properties shrink to about a third, but
+     * encoding costs far more CPU than sending the queued JSON as is, and once gzipped the two
+     * come out about the same size; prefer enableGzipCompression() where the endpoint accepts
+     * gzip.  Only takes effect with batch uploads enabled.
+     *
+     * @param enabled   Whether to encode batches; off by default
+     */
+    public static void setDictionaryEncodedBatches(boolean enabled) {
+        getInstance().dictionaryBatches = enabled;
+    }
+
+    /**
+     * Makes recordEvent() return as soon as the event has been handed to a background recorder
+     * thread, which merges common properties, serializes and queues it.  If more than
+     * {@code capacity} events are waiting, further events are recorded on the caller's thread.
+     * The properties Map passed to recordEvent() must not be modified afterwards.
+     *
+     * @param capacity  The number of events that can wait for the recorder thread
+     */
+    public static void enableAsyncRecording(int capacity) {
+        Indicative instance = getInstance();
+        if (instance.recorder.get() == null) {
+            RecordEventsThread recorder = new RecordEventsThread(
+                    capacity > 0 ? capacity : DEFAULT_ASYNC_RECORD_CAPACITY);
+            if (instance.recorder.compareAndSet(null, recorder)) {
+                recorder.start();
+            }
+        }
+    }
+
+    /**
+     * Records events off the caller's thread, using the default capacity.
+     */
+    public static void enableAsyncRecording() {
+        enableAsyncRecording(DEFAULT_ASYNC_RECORD_CAPACITY);
+    }
+
+    /**
+     * Goes back to recording events on the caller's thread.  Events already handed to the
+     * recorder thread are still recorded.
+     */
+    public static void disableAsyncRecording() {
+        RecordEventsThread recorder = getInstance().recorder.getAndSet(null);
+        if (recorder != null) {
+            recorder.finish();
+        }
+    }
+
     /**
      * Sends specific event now (doesn't queue and wait for thread)
      */
     private void sendEventNow(String event) {
         if (event != null && !event.isEmpty()) {
-            new SendEventAsyncTask(getInstance().context, event).execute();
+            submitUpload(new SendEventAsyncTask(getInstance().context, event));
         }
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param uniqueId		A unique identifier for the user associated with the event
      * @param properties	A Map of property names and values
      * @param forceUpload   A flag when set to true, doesn't queue the event but pushes it right away
      */
-    public static void recordEvent(String eventName, String uniqueId, Map<String, Object> properties, boolean forceUpload) {
+    public static void recordEvent(final String eventName, final String uniqueId, Map<String, Object> properties,
+                                   final boolean forceUpload) {
+        long start = System.nanoTime();
+
+        final Indicative instance = getInstance();
+
+        // Sampled-out and rate-limited events cost nothing past this point.
+        final double sampleRate = instance.throttle.admit(eventName);
+        if (sampleRate <= 0) {
+            instance.metrics.onEventThrottled();
+            return;
+        }
+
+        final long eventTime = System.currentTimeMillis();
+
+        if (!instance.ready) {
+            final Map<String, Object> heldProperties =
+                    properties == null ? null : new HashMap<String, Object>(properties);
+            if (instance.deferUntilReady(new Runnable() {
+                @Override
+                public void run() {
+                    instance.handOffPendingEvent(new PendingEvent(eventName, uniqueId, heldProperties,
+                            instance.commonProps.get(), eventTime, sampleRate, forceUpload));
+                }
+            }, true)) {
+                instance.metrics.onEventRecorded(System.nanoTime() - start);
+                return;
+            }
+        }
+
+        instance.handOffPendingEvent(new PendingEvent(eventName, uniqueId, properties,
+                instance.commonProps.get(), eventTime, sampleRate, forceUpload));
+
+        instance.metrics.onEventRecorded(System.nanoTime() - start);
+    }
+
+    /**
+     * Passes an event to the recorder thread in async mode, or records it right here otherwise.
+     *
+     * @param pending   The event as it was passed to recordEvent()
+     */
+    private void handOffPendingEvent(PendingEvent pending) {
+        RecordEventsThread recorder = this.recorder.get();
+        if (recorder == null || !recorder.offer(pending)) {
+            recordPendingEvent(pending);
+        }
+    }
+
+    private static String newIdempotencyKeyPrefix() {
+        Random random = new Random();
+        return Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()) + "-";
+    }
+
+    /**
+     * @return  A key no other event or alias, from this install or any other, will share
+     */
+    static String newIdempotencyKey() {
+        return IDEMPOTENCY_KEY_PREFIX + Long.toString(idempotencyKeyCounter.incrementAndGet(), 36);
+    }
+
+    /**
+     * Logs a failure the SDK worked around and passes it on to the listener.
+     *
+     * @param message   What went wrong
+     * @param e         The cause
+     */
+    static void reportError(String message, Throwable e) {
+        Log.v("Indicative", message, e);
+        getInstance().metrics.onError(message, e);
+    }
 
-        Map<String, Object> propMap = getAllPropertiesFromSharedPrefs();
-        if (properties != null) { propMap.putAll(properties); }
+    /**
+     * Serializes a recorded event and queues or sends it.  A queued event refers to the saved
+     * version of the common properties it was recorded with; a sent one has them merged in.
+     *
+     * @param pending   The event as it was passed to recordEvent()
+     */
+    private static void recordPendingEvent(PendingEvent pending) {
+        boolean forceUpload = pending.forceUpload;
+        Map<String, PropertyValue> common = pending.commonProperties;
+        PropertySnapshots snapshots = getInstance().propertySnapshots;
+        boolean byReference = !forceUpload && snapshots != null && !common.isEmpty();
+
+        Map<String, Object> propMap = byReference
+                ? new HashMap<String, Object>() : new HashMap<String, Object>(common);
+        if (pending.properties != null) { propMap.putAll(pending.properties); }
+        if (pending.sampleRate < 1) {
+            // Lets counts be scaled back up: each kept event stands for 1 / rate recorded ones.
+            propMap.put(SAMPLE_RATE_PROPERTY, PropertyValue.of(pending.sampleRate));
+        }
 
+        String uniqueId = pending.uniqueId;
         if (uniqueId == null || uniqueId.isEmpty()) {
-            uniqueId = getUniqueIDFromSharedPrefs();
+            uniqueId = getInstance().identity.get().activeId();
         }
 
-        Event event = new Event(getInstance().apiKey, eventName, uniqueId, propMap);
+        Event event = new Event(getInstance().apiKey, pending.eventName, uniqueId, propMap,
+                pending.eventTime);
         String jsonObj = event.getPayloadString();
-
+        EventStore journal = getInstance().eventStore;
         if (forceUpload) {
             getInstance().sendEventNow(jsonObj);
+        } else if (!byReference || journal == null) {
+            addEventToQueue(jsonObj);
         } else {
-            addEventToSharedPrefs(jsonObj);
+            // Referenced and queued under the journal's lock, which pruning takes too, so the
+            // version cannot be deleted before the event that refers to it is queued.
+            synchronized (journal) {
+                try {
+                    jsonObj = snapshots.reference(jsonObj, common);
+                } catch (IOException e) {
+                    reportError("Could not save common properties version; queueing them with the event", e);
+                    Map<String, Object> merged = new HashMap<String, Object>(common);
+                    merged.putAll(propMap);
+                    jsonObj = new Event(getInstance().apiKey, pending.eventName, uniqueId, merged,
+                            pending.eventTime).getPayloadString();
+                }
+                addEventToQueue(jsonObj);
+            }
         }
 
         if (debug) {
@@ -142,7 +969,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param uniqueId		A unique identifier for the user associated with the event
@@ -154,7 +981,7 @@ public class Indicative {
 
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      */
@@ -163,7 +990,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param forceUpload   A flag when set to true, doesn't queue the event but pushes it right away
@@ -173,7 +1000,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param uniqueId		A unique identifier for the user associated with the event
@@ -183,7 +1010,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param uniqueId		A unique identifier for the user associated with the event
@@ -194,7 +1021,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param properties	A Map of property names and values
@@ -204,7 +1031,7 @@ public class Indicative {
     }
 
     /**
-     * Creates an Event object and adds it to SharedPreferences queue to send to Indicative input services.
+     * Creates an Event object and adds it to the queue to send to Indicative input services.
      *
      * @param eventName		The name of your event
      * @param properties	A Map of property names and values
@@ -214,7 +1041,99 @@ public class Indicative {
         recordEvent(eventName, null, properties, forceUpload);
     }
 
+    /**
+     * Counts an occurrence of an event without recording it.  Counts are kept in memory per
+     * event name and property set, and once per aggregation window each distinct one is
+     * recorded as a single event carrying the count in its "indicativeCount" property and the
+     * window's start time in "indicativeWindowStart".  Counts not yet sent are lost if the
+     * process dies.
+     *
+     * @param eventName     The name of your event
+     * @param properties    A Map of property names and values
+     * @param by            The amount to count
+     */
+    public static void increment(String eventName, Map<String, Object> properties, long by) {
+        if (eventName == null) {
+            return;
+        }
+        Indicative instance = getInstance();
+        Map<String, PropertyValue> props;
+        if (properties == null || properties.isEmpty()) {
+            props = Collections.emptyMap();
+        } else {
+            props = new HashMap<String, PropertyValue>(properties.size() * 2);
+            for (Entry<String, Object> entry : properties.entrySet()) {
+                if (entry.getValue() != null) {
+                    props.put(entry.getKey(), PropertyValue.from(entry.getValue()));
+                }
+            }
+        }
+        if (instance.aggregator.increment(eventName, props, by, System.currentTimeMillis())) {
+            instance.startWorker().postDelayed(instance.aggregateFlush, instance.aggregationWindowMs);
+        }
+    }
+
+    /**
+     * Counts an occurrence of an event with the given properties.
+     *
+     * @param eventName     The name of your event
+     * @param properties    A Map of property names and values
+     */
+    public static void increment(String eventName, Map<String, Object> properties) {
+        increment(eventName, properties, 1);
+    }
+
+    /**
+     * Counts an occurrence of an event.
+     *
+     * @param eventName     The name of your event
+     */
+    public static void increment(String eventName) {
+        increment(eventName, null, 1);
+    }
+
+    /**
+     * Sets how often counts from increment() are sent.
+     *
+     * @param seconds   The aggregation window
+     */
+    public static void setAggregationWindow(int seconds) {
+        getInstance().aggregationWindowMs =
+                (seconds > 0 ? seconds : DEFAULT_AGGREGATION_WINDOW_SECONDS) * 1000L;
+    }
+
+    /**
+     * Ends the current aggregation window and records a summary event for each of its keys.
+     * Runs on the worker thread.
+     */
+    private void flushAggregates() {
+        Handler worker = startWorker();
+        worker.removeCallbacks(aggregateFlush);
+        if (!ready) {
+            // Storage is still loading; the counts keep until the next window.
+            worker.postDelayed(aggregateFlush, aggregationWindowMs);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, PropertyValue> common = commonProps.get();
+        for (EventAggregator.Summary summary : aggregator.drain()) {
+            Map<String, Object> props = new HashMap<String, Object>(summary.properties);
+            props.put(AGGREGATE_COUNT_PROPERTY, PropertyValue.of(summary.count));
+            props.put(AGGREGATE_WINDOW_START_PROPERTY, PropertyValue.of(summary.windowStart));
+            recordPendingEvent(new PendingEvent(summary.eventName, null, props, common, now, 1, false));
+        }
+    }
+
     public static void recordAlias() {
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                recordAlias();
+            }
+        }, false)) {
+            return;
+        }
         String newId = getUniqueID();
         recordAlias(newId, true);
     }
@@ -223,7 +1142,15 @@ public class Indicative {
         recordAlias(newId, true);
     }
 
-    public static void recordAlias(String newId, boolean forceUpload) {
+    public static void recordAlias(final String newId, final boolean forceUpload) {
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                recordAlias(newId, forceUpload);
+            }
+        }, false)) {
+            return;
+        }
         String previousId = getDefaultUniqueID();
         if (previousId != null) {
             recordAlias(previousId, newId, forceUpload);
@@ -234,7 +1161,15 @@ public class Indicative {
         recordAlias(previousId, newId, true);
     }
 
-    public static void recordAlias(String previousId, String newId, boolean forceUpload) {
+    public static void recordAlias(final String previousId, final String newId, final boolean forceUpload) {
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                recordAlias(previousId, newId, forceUpload);
+            }
+        }, false)) {
+            return;
+        }
         if (previousId == null || newId == null) {
             Log.w("INDICATIVE", "Could not create alias between " + previousId + " and " + newId);
             return;
@@ -246,7 +1181,7 @@ public class Indicative {
         if (forceUpload) {
             getInstance().sendEventNow(payload);
         } else {
-            addEventToSharedPrefs(payload);
+            addEventToQueue(payload);
         }
 
         if (debug) {
@@ -261,8 +1196,16 @@ public class Indicative {
      *
      * @param uniqueID  A unique identifier for the user associated with all events
      */
-    public static void setUniqueID(String uniqueID) {
-        setUniqueIDToSharedPrefs(uniqueID);
+    public static void setUniqueID(final String uniqueID) {
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                setUniqueID(uniqueID);
+            }
+        }, false)) {
+            return;
+        }
+        getInstance().setUniqueIdentity(uniqueID);
     }
 
     /**
@@ -272,7 +1215,7 @@ public class Indicative {
      * @param uniqueID  A unique identifier for the user associated with all events
      */
     public static void setUniqueIDAndAlias(String uniqueID) {
-        setUniqueIDToSharedPrefs(uniqueID);
+        setUniqueID(uniqueID);
         recordAlias(uniqueID);
     }
 
@@ -280,295 +1223,875 @@ public class Indicative {
      * Clears the unique ID that is used on all events
      */
     public static void clearUniqueID() {
-        clearUniqueIDInSharedPrefs();
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                clearUniqueID();
+            }
+        }, false)) {
+            return;
+        }
+        getInstance().setUniqueIdentity(null);
     }
 
     public static void resetAnonymousID() {
-        resetAnonymousIDInSharedPrefs();
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                resetAnonymousID();
+            }
+        }, false)) {
+            return;
+        }
+        getInstance().resetAnonymousIdentity(false);
     }
 
     /**
      * Clears and regenerates the anonymous ID that is used on all events
      */
     public static void reset() {
-        clearUniqueIDInSharedPrefs();
-        resetAnonymousIDInSharedPrefs();
-        removePropertiesFromSharedPrefs();
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+            }
+        }, false)) {
+            return;
+        }
+        getInstance().resetAnonymousIdentity(true);
+        clearCommonProperties();
     }
 
     /**
-     * Adds a property to the common property cached list in SharedPreferences
+     * Adds a property to the common property cached list
      *
      * @param name      The property's unique name
      * @param value     The property's value based on user or event
      */
     public static void addProperty(String name, String value) {
-        addPropertyToSharedPrefs(name, value);
+        putCommonProperty(name, PropertyValue.of(value));
     }
 
     /**
-     * Adds a property to the common property cached list in SharedPreferences
+     * Adds a property to the common property cached list
      *
      * @param name      The property's unique name
      * @param value     The property's value based on user or event
      */
     public static void addProperty(String name, int value) {
-        addPropertyToSharedPrefs(name, value);
+        putCommonProperty(name, PropertyValue.of(value));
+    }
+
+    /**
+     * Adds a property to the common property cached list
+     *
+     * @param name      The property's unique name
+     * @param value     The property's value based on user or event
+     */
+    public static void addProperty(String name, long value) {
+        putCommonProperty(name, PropertyValue.of(value));
+    }
+
+    /**
+     * Adds a property to the common property cached list
+     *
+     * @param name      The property's unique name
+     * @param value     The property's value based on user or event
+     */
+    public static void addProperty(String name, double value) {
+        putCommonProperty(name, PropertyValue.of(value));
     }
 
     /**
-     * Adds a property to the common property cached list in SharedPreferences
+     * Adds a property to the common property cached list
      *
      * @param name      The property's unique name
      * @param value     The property's value based on user or event
      */
     public static void addProperty(String name, boolean value) {
-        addPropertyToSharedPrefs(name, value);
+        putCommonProperty(name, PropertyValue.of(value));
+    }
+
+    /**
+     * Adds a property of any type, including arrays and nested objects, to the common property
+     * cached list
+     *
+     * @param name      The property's unique name
+     * @param value     The property's value based on user or event
+     */
+    public static void addProperty(String name, PropertyValue value) {
+        putCommonProperty(name, value);
     }
 
     /**
-     * Adds a map of common properties to the cached list in SharedPreferences
+     * Adds a map of common properties to the cached list.  Strings, numbers, booleans, Maps,
+     * Collections, arrays and PropertyValues are all kept with their types.
      *
      * @param properties
      */
     public static void addProperties(Map<String, Object> properties) {
+        Map<String, PropertyValue> values = new HashMap<String, PropertyValue>();
         for(Map.Entry<String, Object> prop : properties.entrySet()) {
-            if (prop.getValue() instanceof Boolean) {
-                addProperty(prop.getKey(), (Boolean) prop.getValue());
-            } else if (prop.getValue() instanceof String) {
-                addProperty(prop.getKey(), (String) prop.getValue());
-            } else if (prop.getValue() instanceof Integer) {
-                addProperty(prop.getKey(), (Integer) prop.getValue());
+            if (prop.getValue() != null) {
+                values.put(prop.getKey(), PropertyValue.from(prop.getValue()));
             }
-
         }
+        putCommonProperties(values);
     }
 
     /**
      * Removes a single property from the cached list of common
-     * properties in SharedPreferences
+     * properties, which is kept in memory and saved to a file
      *
      * @param name      The property's unique name or key to remove
      */
     public static void removeProperty(String name) {
-        removePropertyFromSharedPrefs(name);
+        putCommonProperty(name, null);
     }
 
     /**
-     * Clears the entire list of shared common properties in SharedPreferences
+     * Clears the entire list of shared common properties, in memory and in the file they are
+     * saved to
      */
     public static void clearProperties() {
-        removePropertiesFromSharedPrefs();
+        clearCommonProperties();
     }
 	
+    /**
+     * Opens an event journal in the app's files directory.
+     *
+     * @param context   The app context
+     * @param name      The journal's directory name
+     *
+     * @return          The journal, or null if it could not be opened
+     */
+    private static EventJournal openEventJournal(Context context, String name) {
+        try {
+            return new EventJournal(new File(context.getFilesDir(), name));
+        } catch (IOException e) {
+            reportError("Could not open event journal " + name + "; events will not be stored", e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the event store for a storage backend.
+     *
+     * @param context   The app context
+     * @param backend   The storage backend
+     *
+     * @return          The store, or null if it could not be opened
+     */
+    private static EventStore openEventStore(Context context, StorageBackend backend) {
+        switch (backend) {
+            case SQLITE:
+                try {
+                    return new SqliteEventStore(context, EVENT_DATABASE);
+                } catch (IOException e) {
+                    reportError("Could not open event database; falling back to the journal", e);
+                    return null;
+                }
+            case MAPPED_FILE:
+                try {
+                    return new MappedRingEventStore(new File(context.getFilesDir(), EVENT_RING_FILE), EVENT_RING_BYTES);
+                } catch (IOException e) {
+                    reportError("Could not open event ring file; falling back to the journal", e);
+                    return null;
+                }
+            case SHARED_PREFERENCES:
+                return new SharedPreferencesEventStore(
+                        context.getSharedPreferences(EVENT_PREFS, Context.MODE_PRIVATE));
+            default:
+                return openEventJournal(context, EVENT_JOURNAL_DIR);
+        }
+    }
+
+    /**
+     * Moves events left in any backend other than the one in use into it, then deletes the
+     * other backend's files.  This covers events queued by earlier versions of the SDK, which
+     * kept them in SharedPreferences.  Each window of events is removed from the old backend
+     * only once the new one holds it, and the old backend is kept for the next launch if
+     * anything could not be moved, such as when the queue is full.
+     *
+     * @param context   The app context
+     * @param current   The backend in use
+     */
+    private static void migrateEventStores(Context context, StorageBackend current) {
+        EventStore target = getInstance().eventStore;
+        if (target == null) {
+            return;
+        }
+
+        File journalDir = new File(context.getFilesDir(), EVENT_JOURNAL_DIR);
+        File ringFile = new File(context.getFilesDir(), EVENT_RING_FILE);
+
+        for (StorageBackend backend : StorageBackend.values()) {
+            if (backend == current
+                    || (backend == StorageBackend.JOURNAL && !journalDir.isDirectory())
+                    || (backend == StorageBackend.SQLITE && !context.getDatabasePath(EVENT_DATABASE).exists())
+                    || (backend == StorageBackend.MAPPED_FILE && !ringFile.exists())) {
+                continue;
+            }
+
+            EventStore source = openEventStore(context, backend);
+            if (source == null) {
+                continue;
+            }
+            int moved = 0;
+            try {
+                while (true) {
+                    EventStore.Batch batch = source.peekBatch(FLUSH_WINDOW_EVENTS, FLUSH_WINDOW_BYTES, Long.MAX_VALUE);
+                    if (batch.records.isEmpty()) {
+                        break;
+                    }
+                    // A crash before the ack leaves the window in both, to be sent twice
+                    // rather than lost.
+                    appendToQueue(target, batch.records);
+                    source.ack(batch);
+                    moved += batch.records.size();
+                }
+            } catch (IOException e) {
+                reportError("Could not move events out of " + backend + " storage; "
+                        + source.count() + " are left there for next time", e);
+                source.close();
+                continue;
+            }
+            source.close();
+
+            switch (backend) {
+                case JOURNAL:
+                    File[] files = journalDir.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            file.delete();
+                        }
+                    }
+                    journalDir.delete();
+                    break;
+                case SQLITE:
+                    context.deleteDatabase(EVENT_DATABASE);
+                    break;
+                case MAPPED_FILE:
+                    ringFile.delete();
+                    break;
+                default:
+                    // The SharedPreferences store clears itself as it is drained.
+                    break;
+            }
+
+            if (debug && moved > 0) {
+                Log.v("Indicative", "Moved " + moved + " queued events from " + backend + " storage to " + current);
+            }
+        }
+    }
+
 	/**
-	 * Adds the Event object to SharedPreferences
+	 * Appends the Event object to the event journal
 	 * 
 	 * @param jsonObj		A JSON representation of the event
 	 */
-	private static synchronized void addEventToSharedPrefs(String jsonObj){
-		if(getInstance().context == null){
+	private static void addEventToQueue(String jsonObj){
+		EventStore journal = getInstance().eventStore;
+		if(journal == null){
 			Log.v("Indicative", "Indicative instance has not been initialized; not recording event");
 			return;
 		}
-		SharedPreferences prefs = getInstance().eventPrefs;
-		int eventCount = prefs.getInt(jsonObj, 0);
-		prefs.edit().putInt(jsonObj, eventCount + 1).apply();
+		Indicative instance = getInstance();
+		try {
+			synchronized (journal) {
+				if (!instance.makeRoomInQueue(journal, PayloadWriter.utf8Length(jsonObj))) {
+					instance.metrics.onEventsDropped(1);
+					return;
+				}
+				journal.append(jsonObj);
+			}
+		} catch (IOException e) {
+			reportError("Could not queue event", e);
+			return;
+		}
+		instance.onEventQueued(journal.available());
 	}
 
-    private static synchronized void setUUIDInUniquePrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
+    /**
+     * Appends payloads to the event journal, in order, in one write if the queue limits leave
+     * room for all of them.  Otherwise they are queued one at a time under the drop policy.
+     *
+     * @param payloads  The serialized payloads
+     */
+    private static void queuePayloads(List<String> payloads) {
+        EventStore journal = getInstance().eventStore;
+        if (journal == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not recording events");
             return;
         }
+        try {
+            appendToQueue(journal, payloads);
+        } catch (IOException e) {
+            for (String payload : payloads) {
+                addEventToQueue(payload);
+            }
+            return;
+        }
+        getInstance().onEventQueued(journal.available());
+    }
+
+    /**
+     * Appends payloads to the event journal, in order, in one write, without dropping any of
+     * them or anything already queued.
+     *
+     * @param journal   The event journal
+     * @param payloads  The serialized payloads
+     *
+     * @throws IOException  If the queue limits leave no room for all of them, or the journal
+     *                      could not take them; none of them were queued then
+     */
+    private static void appendToQueue(EventStore journal, List<String> payloads) throws IOException {
+        Indicative instance = getInstance();
+        long bytes = 0;
+        for (String payload : payloads) {
+            bytes += PayloadWriter.utf8Length(payload);
+        }
+        synchronized (journal) {
+            if (journal.count() + payloads.size() > instance.maxQueuedEvents
+                    || journal.liveBytes() + bytes > Math.min(instance.maxQueuedBytes, journal.maxBytes())) {
+                throw new IOException("Event queue is full");
+            }
+            journal.append(payloads);
+        }
+    }
+
+    /**
+     * Applies the queue limits and drop policy before a record is appended.  Must be called
+     * while holding the journal's lock.
+     *
+     * @param journal       The event journal
+     * @param payloadBytes  The UTF-8 size of the record's payload
+     *
+     * @return              false if the new record should be dropped instead
+     */
+    private boolean makeRoomInQueue(EventStore journal, int payloadBytes) throws IOException {
+        int maxEvents = maxQueuedEvents;
+        long maxBytes = Math.min(maxQueuedBytes, journal.maxBytes());
+        if (journal.count() + 1 <= maxEvents && journal.liveBytes() + payloadBytes <= maxBytes
+                && journal.hasRoom(payloadBytes)) {
+            overflowSeen = 0;
+            return true;
+        }
+
+        switch (dropPolicy) {
+            case DROP_NEWEST:
+                return false;
+            case SAMPLE:
+                overflowSeen++;
+                if (sampler.nextDouble() * (maxEvents + overflowSeen) >= maxEvents) {
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Skipping records behind one that is out for upload frees no space in a fixed-size
+        // store, so running out of space only drops records while none are out.
+        while (journal.available() > 0
+                && (journal.count() + 1 > maxEvents || journal.liveBytes() + payloadBytes > maxBytes
+                    || (journal.available() == journal.count() && !journal.hasRoom(payloadBytes)))) {
+            int dropped = journal.skip(Math.max(1, journal.count() + 1 - maxEvents));
+            if (dropped == 0) {
+                break;
+            }
+            metrics.onEventsDropped(dropped);
+        }
+        if (debug) {
+            Log.v("Indicative", "Event queue is full; " + metrics.droppedEvents() + " events dropped so far");
+        }
+        // The limits give way while everything queued is out for upload, but a store that is out
+        // of space cannot take the record at all.
+        return journal.hasRoom(payloadBytes);
+    }
+
+    /**
+     * Keeps an event that failed too many times to be retried, unless too many are kept already.
+     * Its common properties are merged back in, since the versions queued events refer to are
+     * deleted once the queue empties.
+     *
+     * @param payload   The stored payload
+     */
+    private static void addDeadLetter(String payload) {
+        EventStore journal = getInstance().deadLetters;
+        if (journal == null || journal.sizeBytes() >= MAX_DEAD_LETTER_BYTES) {
+            Log.v("Indicative", "Dropping event after too many failed uploads");
+            return;
+        }
+        try {
+            journal.append(withCommonProperties(payload));
+        } catch (IOException e) {
+            reportError("Could not keep failed event", e);
+        }
+    }
+
+    /**
+     * Merges the common properties a queued event refers to back into it.
+     *
+     * @param payload   The stored payload
+     *
+     * @return          The payload with its common properties, or as it was if it has them
+     */
+    private static String withCommonProperties(String payload) {
+        PropertySnapshots snapshots = getInstance().propertySnapshots;
+        return snapshots == null ? payload : snapshots.expand(payload);
+    }
+
+    /**
+     * Returns the number of events given up on after too many failed uploads.
+     */
+    public static int getDeadLetterCount() {
+        EventStore journal = getInstance().deadLetters;
+        return journal == null ? 0 : journal.count();
+    }
+
+    /**
+     * Puts every event given up on after too many failed uploads back in the queue.  Events
+     * are only removed from the dead letters once they are queued; any the queue has no room
+     * for stay where they are, for a later call.
+     */
+    public static void redriveDeadLetters() {
+        if (getInstance().deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                redriveDeadLetters();
+            }
+        }, false)) {
+            return;
+        }
+        EventStore journal = getInstance().deadLetters;
+        EventStore queue = getInstance().eventStore;
+        if (journal == null || queue == null) {
+            return;
+        }
+        int requeued = 0;
+        try {
+            while (true) {
+                EventStore.Batch window = journal.peekBatch(FLUSH_WINDOW_EVENTS, FLUSH_WINDOW_BYTES, Long.MAX_VALUE);
+                if (window.records.isEmpty()) {
+                    break;
+                }
+                try {
+                    appendToQueue(queue, window.records);
+                } catch (IOException e) {
+                    journal.release(window);
+                    throw e;
+                }
+                journal.ack(window);
+                requeued += window.records.size();
+            }
+        } catch (IOException e) {
+            reportError("Could not re-queue failed events; " + journal.count() + " are still kept", e);
+        }
+        if (requeued > 0) {
+            getInstance().onEventQueued(queue.available());
+        }
+    }
+
+    /**
+     * The user's IDs.  Never changed in place; a change replaces the whole snapshot.
+     */
+    private static final class Identity {
+        // Set by the app, or null.
+        final String uniqueId;
+        final String anonymousId;
+
+        Identity(String uniqueId, String anonymousId) {
+            this.uniqueId = uniqueId;
+            this.anonymousId = anonymousId;
+        }
+
+        /**
+         * @return  The ID events are recorded against when they do not name one
+         */
+        String activeId() {
+            return uniqueId == null || uniqueId.isEmpty() ? anonymousId : uniqueId;
+        }
+    }
 
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        String uuid = prefs.getString("uuid", null);
+    /**
+     * Reads the user's IDs from SharedPreferences, generating an anonymous ID the first time.
+     * Runs once, on the worker thread, while storage loads.
+     */
+    private void loadIdentity() {
+        String uuid = uniquePrefs.getString("uuid", null);
         if (uuid == null) {
             uuid = UUID.randomUUID().toString();
-            prefs.edit().putString("uuid", uuid).apply();
+            uniquePrefs.edit().putString("uuid", uuid).apply();
+        }
+        identity.set(new Identity(uniquePrefs.getString(UNIQUE_PREFS, null), uuid));
+    }
+
+    /**
+     * Sets or clears the unique ID in the in-memory snapshot, then saves the snapshot on the
+     * worker thread.
+     *
+     * @param unique    A string of a unique identifier for this user, or null to clear it
+     */
+    private void setUniqueIdentity(String unique) {
+        if (context == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
+            return;
         }
+        Identity current;
+        do {
+            current = identity.get();
+        } while (!identity.compareAndSet(current, new Identity(unique, current.anonymousId)));
+        saveIdentity();
+    }
+
+    /**
+     * Generates a new anonymous ID in the in-memory snapshot, then saves the snapshot on the
+     * worker thread.
+     *
+     * @param clearUniqueId     Whether to clear the unique ID as well
+     */
+    private void resetAnonymousIdentity(boolean clearUniqueId) {
+        if (context == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not resetting anonymous id");
+            return;
+        }
+        String uuid = UUID.randomUUID().toString();
+        Identity current;
+        do {
+            current = identity.get();
+        } while (!identity.compareAndSet(current,
+                new Identity(clearUniqueId ? null : current.uniqueId, uuid)));
+        saveIdentity();
+    }
+
+    /**
+     * Writes the current IDs to SharedPreferences on the worker thread.  Changes made before an
+     * earlier save has run are covered by that save, and saves are made in order, so the last
+     * change is always the one kept.
+     */
+    private void saveIdentity() {
+        if (!identitySavePending.compareAndSet(false, true)) {
+            return;
+        }
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                identitySavePending.set(false);
+                Identity ids = identity.get();
+                SharedPreferences.Editor editor = uniquePrefs.edit().putString("uuid", ids.anonymousId);
+                if (ids.uniqueId == null) {
+                    editor.remove(UNIQUE_PREFS);
+                } else {
+                    editor.putString(UNIQUE_PREFS, ids.uniqueId);
+                }
+                editor.apply();
+            }
+        });
     }
 
     /**
      *  Returns the unique ID set by user. If not set, return null
+     *
+     *  Never waits on storage: until the stored IDs have been read, on a background thread
+     *  shortly after launch(), this returns null.
      */
     public static String getUniqueID() {
         if (getInstance().context == null) {
             Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
             return null;
         }
-
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        return prefs.getString(UNIQUE_PREFS, null);
+        return getInstance().identity.get().uniqueId;
     }
 
     /**
      *  Returns the unique ID set by user. If not set, return the generated anonymous UUID
+     *
+     *  Never waits on storage: until the stored IDs have been read, on a background thread
+     *  shortly after launch(), this returns null.
      */
     public static String getActiveUniqueID() {
-        return getUniqueIDFromSharedPrefs();
+        if (getInstance().context == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
+            return null;
+        }
+        return getInstance().identity.get().activeId();
     }
     
     /**
      *  Returns the generated UUID used as a default unique ID when no ID has otherwise been set
+     *
+     *  Never waits on storage: until the stored IDs have been read, on a background thread
+     *  shortly after launch(), this returns null.
      */
     public static String getDefaultUniqueID() {
         if (getInstance().context == null) {
             Log.v("Indicative", "Indicative instance has not been initialized; not returning anonymous ID");
             return null;
         }
-
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        return prefs.getString("uuid", null);
+        return getInstance().identity.get().anonymousId;
     }
-    
+
     /**
-     *  Adds the unique id to SharedPreferences
+     * Replaces a single common property in the in-memory snapshot, then saves the snapshot on
+     * the worker thread.
      *
-     * @param unique    A string of a unique identifier for this user
+     * @param key		A property's key or name
+     * @param val       A property's value, or null to remove the property
      */
-    private static synchronized void setUniqueIDToSharedPrefs(String unique) {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
-            return;
-        }
-
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        prefs.edit().putString(UNIQUE_PREFS, unique).apply();
+    private static void putCommonProperty(String key, PropertyValue val) {
+        putCommonProperties(Collections.singletonMap(key, val));
     }
 
     /**
-     *  Gets the unique identifier from SharedPreferences
+     * Replaces common properties in the in-memory snapshot, then saves the snapshot on the
+     * worker thread.
+     *
+     * @param changes   Properties' new values; a null or NULL value removes the property
      */
-    private static synchronized String getUniqueIDFromSharedPrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not setting up unique id");
-            return null;
+    private static void putCommonProperties(final Map<String, PropertyValue> changes) {
+        final Indicative instance = getInstance();
+        if (instance.context == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not changing common prop");
+            return;
         }
-
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        String uniqueID = prefs.getString(UNIQUE_PREFS, null);
-
-        if (uniqueID == null || uniqueID.isEmpty()) {
-            uniqueID = prefs.getString("uuid", null);
+        if (instance.deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                putCommonProperties(changes);
+            }
+        }, false)) {
+            return;
         }
 
-        return uniqueID;
-    }
-
-    private static synchronized void resetAnonymousIDInSharedPrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not resetting anonymous id");
-            return ;
-        }
+        Map<String, PropertyValue> current;
+        Map<String, PropertyValue> props;
+        do {
+            current = instance.commonProps.get();
+            props = new HashMap<String, PropertyValue>(current);
+            for (Map.Entry<String, PropertyValue> change : changes.entrySet()) {
+                PropertyValue val = change.getValue();
+                if (val == null || val.getType() == PropertyValue.Type.NULL) {
+                    props.remove(change.getKey());
+                } else {
+                    props.put(change.getKey(), val);
+                }
+            }
+        } while (!instance.commonProps.compareAndSet(current, Collections.unmodifiableMap(props)));
 
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        prefs.edit().putString("uuid", UUID.randomUUID().toString()).apply();
+        instance.saveCommonProperties();
     }
 
     /**
-     *  Clears the unique id cached in SharedPreferences
+     * Clears the in-memory snapshot of common properties, then saves the empty snapshot on the
+     * worker thread.
      */
-    private static synchronized void clearUniqueIDInSharedPrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not clearing unique id");
+    private static void clearCommonProperties() {
+        final Indicative instance = getInstance();
+        if (instance.context == null) {
+            Log.v("Indicative", "Indicative instance has not been initialized; not clearing common props");
+            return;
+        }
+        if (instance.deferUntilReady(new Runnable() {
+            @Override
+            public void run() {
+                clearCommonProperties();
+            }
+        }, false)) {
             return;
         }
 
-        SharedPreferences prefs = getInstance().uniquePrefs;
-        prefs.edit().remove(UNIQUE_PREFS).apply();
+        instance.commonProps.set(Collections.<String, PropertyValue>emptyMap());
+
+        instance.saveCommonProperties();
     }
 
     /**
-     * Adds a common property to the SharedPreferences
-     *
-     * @param key		A property's key or name
-     * @param val       A property's value
+     * Writes the current common properties snapshot to disk on the worker thread.  Changes made
+     * before an earlier save has run are covered by that save.
      */
-    private static synchronized void addPropertyToSharedPrefs(String key, String val) {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not adding common prop");
+    private void saveCommonProperties() {
+        if (!propsSavePending.compareAndSet(false, true)) {
             return;
         }
-
-        SharedPreferences prefs = getInstance().propsPrefs;
-        prefs.edit().putString(key, val).apply();
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                propsSavePending.set(false);
+                Map<String, PropertyValue> props = commonProps.get();
+                try {
+                    writeCommonProperties(new File(context.getFilesDir(), PROPS_FILE), props);
+                } catch (IOException e) {
+                    reportError("Could not save common properties", e);
+                }
+            }
+        });
     }
 
     /**
-     * Adds a common property to the SharedPreferences
+     * Reads the saved common properties, moving them out of SharedPreferences if an earlier
+     * version of the SDK left them there.
      *
-     * @param key		A property's key or name
-     * @param val       A property's value
+     * @param context   The app context
+     *
+     * @return          The saved common properties
      */
-    private static synchronized void addPropertyToSharedPrefs(String key, int val) {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not adding common prop");
-            return;
+    private static Map<String, PropertyValue> loadCommonProperties(Context context) {
+        File file = new File(context.getFilesDir(), PROPS_FILE);
+        Map<String, PropertyValue> props = new HashMap<String, PropertyValue>();
+
+        if (file.exists()) {
+            try {
+                return readCommonProperties(file);
+            } catch (IOException e) {
+                reportError("Could not read saved common properties", e);
+                return props;
+            }
         }
 
-        SharedPreferences prefs = getInstance().propsPrefs;
-        prefs.edit().putInt(key, val).apply();
+        SharedPreferences legacyPrefs = context.getSharedPreferences(PROPS_PREFS, Context.MODE_PRIVATE);
+        Map<String, ?> legacy = legacyPrefs.getAll();
+        if (legacy != null && !legacy.isEmpty()) {
+            for (Entry<String, ?> entry : legacy.entrySet()) {
+                props.put(entry.getKey(), PropertyValue.from(entry.getValue()));
+            }
+            try {
+                writeCommonProperties(file, props);
+                legacyPrefs.edit().clear().apply();
+            } catch (IOException e) {
+                reportError("Could not move common properties out of SharedPreferences", e);
+            }
+        }
+        return props;
     }
 
     /**
-     * Adds a common property to the SharedPreferences
-     *
-     * @param key		A property's key or name
-     * @param val       A property's value
+     * Reads a common properties file written by writeCommonProperties().
      */
-    private static synchronized void addPropertyToSharedPrefs(String key, boolean val) {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not adding common prop");
-            return;
+    static Map<String, PropertyValue> readCommonProperties(File file) throws IOException {
+        Map<String, PropertyValue> props = new HashMap<String, PropertyValue>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != PROPS_FILE_VERSION) {
+                throw new IOException("Unknown common properties file version");
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String key = PropertyValue.readString(in);
+                props.put(key, PropertyValue.read(in));
+            }
+        } finally {
+            in.close();
         }
-
-        SharedPreferences prefs = getInstance().propsPrefs;
-        prefs.edit().putBoolean(key, val).apply();
+        return props;
     }
 
     /**
-     * Removes a single property from the property cache in SharedPreferences
-     *
-     * @param key   The property's key to be removed
+     * Replaces the saved common properties with the given snapshot.
      */
-    private static synchronized void removePropertyFromSharedPrefs(String key) {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not adding common prop");
-            return;
+    static void writeCommonProperties(File file, Map<String, PropertyValue> props) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(PROPS_FILE_VERSION);
+            out.writeInt(props.size());
+            for (Map.Entry<String, PropertyValue> prop : props.entrySet()) {
+                PropertyValue.writeString(out, prop.getKey());
+                prop.getValue().write(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
         }
-
-        SharedPreferences prefs = getInstance().propsPrefs;
-        prefs.edit().remove(key).apply();
     }
 
     /**
-     * Clear all of the cached properties in the SharedPreferences
+     * An event as passed to recordEvent(), with the common properties in effect at the time.
      */
-    private static synchronized void removePropertiesFromSharedPrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not adding common prop");
-            return;
+    private static final class PendingEvent {
+        final String eventName;
+        final String uniqueId;
+        final Map<String, Object> properties;
+        final Map<String, PropertyValue> commonProperties;
+        final long eventTime;
+        final double sampleRate;
+        final boolean forceUpload;
+
+        PendingEvent(String eventName, String uniqueId, Map<String, Object> properties,
+                     Map<String, PropertyValue> commonProperties, long eventTime, double sampleRate,
+                     boolean forceUpload) {
+            this.eventName = eventName;
+            this.uniqueId = uniqueId;
+            this.properties = properties;
+            this.commonProperties = commonProperties;
+            this.eventTime = eventTime;
+            this.sampleRate = sampleRate;
+            this.forceUpload = forceUpload;
         }
-
-        SharedPreferences prefs = getInstance().propsPrefs;
-        prefs.edit().clear().apply();
     }
 
     /**
-     * Gets all the cached properties in the SharedPreferences
+     * Background thread that records the events recordEvent() hands off in async mode.
      */
-    private static synchronized Map<String, Object> getAllPropertiesFromSharedPrefs() {
-        if (getInstance().context == null) {
-            Log.v("Indicative", "Indicative instance has not been initialized; not getting common props");
-            return new HashMap<String, Object>();
+    private static final class RecordEventsThread extends Thread {
+        private final EventRingBuffer<PendingEvent> buffer;
+        private volatile boolean waiting;
+        private volatile boolean finished;
+
+        RecordEventsThread(int capacity) {
+            buffer = new EventRingBuffer<PendingEvent>(capacity);
+            setName("IndicativeRecorder");
+            setDaemon(true);
         }
 
-        SharedPreferences prefs = getInstance().propsPrefs;
-        return (Map<String,Object>)prefs.getAll();
-    }
+        boolean offer(PendingEvent pending) {
+            if (finished || !buffer.offer(pending)) {
+                return false;
+            }
+            if (waiting) {
+                LockSupport.unpark(this);
+            }
+            return true;
+        }
+
+        /**
+         * Stops the thread once it has recorded everything already handed to it, and waits
+         * for it to do so.
+         */
+        void finish() {
+            finished = true;
+            LockSupport.unpark(this);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
+        @Override
+        public void run() {
+            while (true) {
+                PendingEvent pending = buffer.poll();
+                if (pending != null) {
+                    try {
+                        recordPendingEvent(pending);
+                    } catch (RuntimeException e) {
+                        reportError("Could not record event", e);
+                    }
+                    continue;
+                }
+                if (finished) {
+                    return;
+                }
+                waiting = true;
+                if (buffer.isEmpty() && !finished) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+    }
 
     /**
 	 * Object representing an Indicative Event
@@ -580,6 +2103,7 @@ public class Indicative {
 		private long eventTime;
 		private String eventUniqueId;
 		private Map<String, Object> properties;
+		private String idempotencyKey;
 		
 		/**
 		 * Basic constructor.
@@ -590,36 +2114,61 @@ public class Indicative {
 		 * @param properties		A Map of property names and values
 		 */
 		public Event(String apiKey, String eventName, String eventUniqueId, Map<String, Object> properties){
+			this(apiKey, eventName, eventUniqueId, properties, System.currentTimeMillis());
+		}
+
+		/**
+		 * Constructor for an event that happened at a known time.
+		 * 
+		 * @param apiKey			Your project's API key
+		 * @param eventName			The name of your event
+		 * @param eventUniqueId		A unique identifier for the user associated with the event
+		 * @param properties		A Map of property names and values
+		 * @param eventTime			When the event happened, in milliseconds since the epoch
+		 */
+		public Event(String apiKey, String eventName, String eventUniqueId, Map<String, Object> properties, long eventTime){
 			this.apiKey = apiKey;
 			this.eventName = eventName;
-			this.eventTime = System.currentTimeMillis();
+			this.eventTime = eventTime;
 			this.eventUniqueId = eventUniqueId;
 			this.properties = properties;
+			this.idempotencyKey = newIdempotencyKey();
 		}
 		
 		/**
 		 * Creates a JSON representation of the Event.
 		 */
 		public String getPayloadString() {
-			JSONObject event = new JSONObject();
-			
-			try {
-				event.put("apiKey", apiKey);
-				event.put("eventName", eventName);
-				event.put("eventTime", eventTime);
-				event.put("eventUniqueId", eventUniqueId);
-				if(properties != null && !properties.isEmpty()){
-					JSONObject propsJson = new JSONObject();
-					for(Entry<String, Object> entry : properties.entrySet()){
-						propsJson.put(entry.getKey(), entry.getValue());
+			PayloadWriter writer = PayloadWriter.local();
+			writePayload(writer);
+			return writer.toString();
+		}
+
+		/**
+		 * Streams the JSON representation of the Event into a writer.
+		 * 
+		 * @param writer	The writer to append to
+		 */
+		void writePayload(PayloadWriter writer) {
+			writer.beginObject()
+					.name("apiKey").value(apiKey)
+					.name("eventName").value(eventName)
+					.name("eventTime").value(eventTime)
+					.name("idempotencyKey").value(idempotencyKey);
+			// Like org.json, leave out members whose value is null.
+			if(eventUniqueId != null){
+				writer.name("eventUniqueId").value(eventUniqueId);
+			}
+			if(properties != null && !properties.isEmpty()){
+				writer.name("properties").beginObject();
+				for(Entry<String, Object> entry : properties.entrySet()){
+					if(entry.getValue() != null && entry.getValue() != PropertyValue.NULL){
+						writer.name(entry.getKey()).value(entry.getValue());
 					}
-					event.put("properties", propsJson);
 				}
-			} catch (JSONException e) {
-				Log.v("Indicative", "Event" + e.getMessage(), e.fillInStackTrace());
+				writer.endObject();
 			}
-			
-			return event.toString();
+			writer.endObject();
 		}
 	}
 
@@ -634,6 +2183,7 @@ public class Indicative {
         private String previousId;
         private String newId;
         private long timestamp;
+        private String idempotencyKey;
 
         /**
          * Basic constructor.
@@ -647,24 +2197,32 @@ public class Indicative {
             this.previousId = previousId;
             this.newId = newId;
             this.timestamp = System.currentTimeMillis();
+            this.idempotencyKey = newIdempotencyKey();
         }
 
         /**
          * Creates a JSON representation of the Event.
          */
         public String getPayloadString(){
-            JSONObject alias = new JSONObject();
-
-            try {
-                alias.put("apiKey", apiKey);
-                alias.put("previousId", previousId);
-                alias.put("newId", newId);
-                alias.put("timestamp", timestamp);
-            } catch (JSONException e) {
-                Log.v("Indicative", "Alias" + e.getMessage(), e.fillInStackTrace());
-            }
+            PayloadWriter writer = PayloadWriter.local();
+            writer.raw(PAYLOAD_PREFIX);
+            writePayload(writer);
+            return writer.toString();
+        }
 
-            return PAYLOAD_PREFIX + alias.toString();
+        /**
+         * Streams the JSON representation of the Alias, without the queue prefix, into a writer.
+         *
+         * @param writer    The writer to append to
+         */
+        void writePayload(PayloadWriter writer) {
+            writer.beginObject()
+                    .name("apiKey").value(apiKey)
+                    .name("previousId").value(previousId)
+                    .name("newId").value(newId)
+                    .name("timestamp").value(timestamp)
+                    .name("idempotencyKey").value(idempotencyKey)
+                    .endObject();
         }
     }
 
@@ -672,7 +2230,16 @@ public class Indicative {
      *  Clear the cached events by sending them all now using the ASYNC task.
      */
     public static void sendAllEvents() {
-        getInstance().sendAllEvents(getInstance().context);
+        Indicative instance = getInstance();
+        if (instance.aggregator.size() > 0) {
+            // Runs before the flush below, which is posted to the same thread after it.
+            instance.startWorker().post(instance.aggregateFlush);
+        }
+        if (instance.timerHandler != null) {
+            instance.requestFlush(0);
+        } else {
+            instance.sendAllEvents(instance.context);
+        }
     }
 
 
@@ -681,30 +2248,293 @@ public class Indicative {
      *
      *  @param context  instance context
      */
-    public synchronized void sendAllEvents(Context context) {
-        SharedPreferences prefs = eventPrefs;
-        Map<String, ?> events = prefs.getAll();
-
-        if(events != null && !events.isEmpty()){
-            for (String event : events.keySet()) {
-                for(int i = 0 ; i < (Integer)events.get(event) ; i++) {
-                    new SendEventAsyncTask(context, event).execute();
-
-                    //remove from preferences
-                    int eventCount = prefs.getInt(event, 0);
-                    if (eventCount > 1) {
-                        prefs.edit().putInt(event, eventCount - 1).apply();
-                    } else {
-                        prefs.edit().remove(event).apply();
+    public void sendAllEvents(Context context) {
+        // Only one flush runs at a time.  A flush asked for while another is running makes that
+        // one go round again rather than waiting for it.
+        flushRequested.set(true);
+        while (flushRequested.get() && flushing.compareAndSet(false, true)) {
+            try {
+                flushRequested.set(false);
+                flushQueue(context);
+            } finally {
+                flushing.set(false);
+            }
+        }
+
+        // A flush that sent nothing, whether backed off, held by the scheduler or short of
+        // room in the pipeline, leaves no upload behind to run the idle callbacks when it
+        // finishes.
+        if (pendingUploads.get() == 0) {
+            runIdleCallbacks();
+        }
+    }
+
+    /**
+     * Takes the next part of the queue and hands it to the upload pipeline.  Only called by
+     * sendAllEvents(), one flush at a time.
+     *
+     * @param context   instance context
+     */
+    private void flushQueue(Context context) {
+        if (eventStore == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!uploadBackoff.canAttempt(now)) {
+            if (debug) {
+                Log.v("Indicative", "Backing off uploads for " + uploadBackoff.remainingDelayMs(now) + "ms");
+            }
+            return;
+        }
+
+        // Only take as much of the queue as there is room for in the upload pipeline; the rest
+        // waits for uploads to finish or for the next flush.
+        int freeUploads = MAX_PENDING_UPLOADS - pendingUploads.get() - retryingUploads.get();
+        if (freeUploads <= 0) {
+            if (debug) {
+                Log.v("Indicative", "Upload pipeline is full; deferring flush");
+            }
+            return;
+        }
+        UploadScheduler scheduler = getUploadScheduler();
+        if (scheduler != null && !scheduler.shouldFlushNow(eventStore.available(), largeBacklogEvents)) {
+            if (debug) {
+                Log.v("Indicative", "Holding uploads until the network or power state changes");
+            }
+            return;
+        }
+
+        int maxEvents = batchUploads ? freeUploads * maxBatchEvents : freeUploads;
+        int maxBytes = batchUploads ? freeUploads * maxBatchBytes : FLUSH_WINDOW_BYTES;
+
+        // Events stay in the journal until the uploads carrying them have finished with them,
+        // so none are lost if the process dies mid-upload.
+        List<String> events;
+        EventStore.Batch lease;
+        try {
+            int expired = eventStore.releaseExpired(now);
+            if (expired > 0) {
+                Log.v("Indicative", expired + " uploads did not finish in time; their events will be sent again");
+            }
+        } catch (IOException e) {
+            // The rest of the queue can still be sent.
+            reportError("Could not release events from uploads that did not finish", e);
+        }
+        try {
+            lease = eventStore.peekBatch(Math.min(maxEvents, FLUSH_WINDOW_EVENTS),
+                    Math.min(maxBytes, FLUSH_WINDOW_BYTES), now + UPLOAD_LEASE_MS);
+            if (lease.records.isEmpty()) {
+                return;
+            }
+            events = lease.records;
+        } catch (IOException e) {
+            reportError("Could not read queued events", e);
+            return;
+        }
+
+        // Payloads are not grouped by content: each event carries its own idempotency key, so
+        // no two are alike, and sending copies that did share a key would have the server drop
+        // all but one of them.  Records queued as copies of one payload by older versions, which
+        // have no key, come out of the store next to each other and so share a batch anyway.
+        List<SendEventAsyncTask> uploads = new ArrayList<SendEventAsyncTask>();
+        if (batchUploads) {
+            sendAllEventsInBatches(context, events, uploads);
+        } else {
+            for (String payload : events) {
+                uploads.add(new SendEventAsyncTask(context, payload));
+            }
+        }
+
+        metrics.onFlush(events.size(), uploads.size());
+
+        LeasedWindow window = new LeasedWindow(lease, uploads.size());
+        for (SendEventAsyncTask upload : uploads) {
+            upload.window = window;
+            submitUpload(upload);
+        }
+
+        if (debug) {
+            Log.v("Indicative", "Flushed " + events.size() + " events; " + eventStore.count() + " still queued");
+        }
+    }
+
+    /**
+     * Runs an upload on the dedicated upload executor.
+     *
+     * @param task  The upload to run
+     */
+    private void submitUpload(SendEventAsyncTask task) {
+        pendingUploads.incrementAndGet();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            task.executeOnExecutor(uploadExecutor);
+        } else {
+            // AsyncTask already runs on a thread pool before Honeycomb.
+            task.execute();
+        }
+    }
+
+    /**
+     * Called when an upload has finished.  If it succeeded and more events are queued, the
+     * timer is fired straight away to send the next part of the queue; that flush runs the idle
+     * callbacks if it ends up sending nothing.
+     *
+     * @param successful    Whether the upload was accepted
+     */
+    private void onUploadFinished(boolean successful) {
+        int pending = pendingUploads.decrementAndGet();
+        if (successful && timerHandler != null && eventStore != null && eventStore.available() > 0) {
+            requestFlush(0);
+        } else if (pending == 0) {
+            // Once the queue is empty, no event refers to an older version of the common
+            // properties any more.
+            PropertySnapshots snapshots = propertySnapshots;
+            if (snapshots != null && eventStore != null) {
+                snapshots.prune(eventStore);
+            }
+            runIdleCallbacks();
+        }
+    }
+
+    /**
+     * Runs the callbacks waiting for no uploads to be in flight.
+     */
+    private void runIdleCallbacks() {
+        List<Runnable> callbacks;
+        synchronized (idleCallbacks) {
+            if (idleCallbacks.isEmpty()) {
+                return;
+            }
+            callbacks = new ArrayList<Runnable>(idleCallbacks);
+            idleCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private static ThreadPoolExecutor createUploadExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(UPLOAD_THREADS, UPLOAD_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "IndicativeUpload-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
                     }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Packs the queued payloads into as few requests as the batch limits allow, keeping events
+     * and aliases in separate batches and each kind in queue order.
+     *
+     * @param context   instance context
+     * @param events    The queued payloads
+     * @param uploads   Receives an upload for each batch
+     */
+    private void sendAllEventsInBatches(Context context, List<String> events,
+                                        List<SendEventAsyncTask> uploads) {
+        List<List<String>> batches = new ArrayList<List<String>>();
+        BatchBuilder eventBatch = new BatchBuilder(batches);
+        BatchBuilder aliasBatch = new BatchBuilder(batches);
+
+        for (String payload : events) {
+            BatchBuilder batch = payload.startsWith(Alias.PAYLOAD_PREFIX) ? aliasBatch : eventBatch;
+            batch.add(payload, PayloadWriter.utf8Length(payload));
+        }
+        eventBatch.finish();
+        aliasBatch.finish();
+
+        for (List<String> batch : batches) {
+            uploads.add(new SendEventAsyncTask(context, batch));
+        }
+
+        if (debug) {
+            Log.v("Indicative", "Sending " + batches.size() + " batches");
+        }
+    }
+
+    /**
+     * A lease on part of the queue, shared by the uploads it was split into.  The lease is
+     * acknowledged once every one of them has finished: either the server took the events, or
+     * they were given up on and dead-lettered.  An upload waiting to be retried has not finished.
+     */
+    private final class LeasedWindow {
+        private final EventStore.Batch lease;
+        private final AtomicInteger unfinished;
+
+        LeasedWindow(EventStore.Batch lease, int uploads) {
+            this.lease = lease;
+            this.unfinished = new AtomicInteger(uploads);
+        }
+
+        /**
+         * @return  false if the lease expired and its events were already handed out again
+         */
+        boolean isOutstanding() {
+            return eventStore.isOutstanding(lease);
+        }
+
+        /**
+         * Keeps the lease from expiring before the given time, while an upload waits to retry.
+         *
+         * @return  false if the lease expired and its events were already handed out again
+         */
+        boolean extend(long expiresAt) {
+            return eventStore.extend(lease, expiresAt);
+        }
+
+        void onUploadFinished() {
+            if (unfinished.decrementAndGet() == 0) {
+                try {
+                    eventStore.ack(lease);
+                } catch (IOException e) {
+                    reportError("Could not acknowledge sent events; they may be sent again", e);
                 }
             }
         }
     }
 
+    /**
+     * Accumulates payloads of one kind into batches bounded by count and size.
+     */
+    private class BatchBuilder {
+        private final List<List<String>> batches;
+        private List<String> current = new ArrayList<String>();
+        private int currentBytes = 0;
+
+        BatchBuilder(List<List<String>> batches) {
+            this.batches = batches;
+        }
+
+        void add(String payload, int bytes) {
+            if (!current.isEmpty()
+                    && (current.size() >= maxBatchEvents || currentBytes + bytes > maxBatchBytes)) {
+                finish();
+            }
+            current.add(payload);
+            currentBytes += bytes;
+        }
+
+        void finish() {
+            if (!current.isEmpty()) {
+                batches.add(current);
+                current = new ArrayList<String>();
+                currentBytes = 0;
+            }
+        }
+    }
+
 	
 	/**
-	 * Scheduled timer to periodically send Events to the Indicative API endpoint.
+	 * Timer that sends queued Events to the Indicative API endpoint.  It goes idle whenever the
+	 * queue is empty, and is re-armed by the next queued event.
 	 */
 	public class SendEventsTimerThread extends Thread {
 		private Context context;
@@ -717,7 +2547,7 @@ public class Indicative {
 		}
 		
 		/**
-		 * For each Event in SharedPreferences, this executes an AsyncTask to send it to the Indicative API endpoint.
+		 * For each queued Event, this executes an AsyncTask to send it to the Indicative API endpoint.
 		 */
 		@Override
 		public void run() {
@@ -726,8 +2556,17 @@ public class Indicative {
 				Log.v("Indicative", "Timer: Running send events timer");
 			}
 
+            synchronized (this) {
+                scheduledFlushAt = 0;
+            }
             sendAllEvents(context);
-            handler.postDelayed(this, SEND_EVENTS_TIMER_SECONDS * 1000l);
+
+            UploadScheduler scheduler = uploadScheduler;
+            boolean held = scheduler != null && networkAwareUploads && scheduler.isWaiting();
+            if (!held && eventStore != null && eventStore.available() > 0) {
+                requestFlush(Math.max(uploadBackoff.remainingDelayMs(SystemClock.elapsedRealtime()),
+                        flushMaxAgeMs));
+            }
         }
 	}
 	
@@ -739,14 +2578,34 @@ public class Indicative {
 
 		private static final String API_EVENT_ENDPOINT = "https://api.indicative.com/service/event";
         private static final String API_ALIAS_ENDPOINT = "https://api.indicative.com/service/alias";
+        private static final String API_EVENT_BATCH_ENDPOINT = "https://api.indicative.com/service/event/batch";
+        private static final String API_ALIAS_BATCH_ENDPOINT = "https://api.indicative.com/service/alias/batch";
 
 		private Context context;
-		private String payload;
+		private List<String> payloads;
+		private long retryAfterMs = -1;
+		private long latencyMs;
+
+		// Failed attempts at sending these payloads before this one.
+		private int attempts;
+
+		// The lease on the queued events being sent, or null if they were never queued.
+		private LeasedWindow window;
 
 		public SendEventAsyncTask(Context context, String payload) {
-			this.context = context;
-			this.payload = payload;
+			this(context, Collections.singletonList(payload));
 		}
+
+        /**
+         * Sends several payloads of the same kind (all events or all aliases) in one request.
+         *
+         * @param context   instance context
+         * @param payloads  The queued payloads, as stored
+         */
+        public SendEventAsyncTask(Context context, List<String> payloads) {
+            this.context = context;
+            this.payloads = payloads;
+        }
 		
 		/**
 		 * Initializes the static Indicative instance with the project's API Key.
@@ -757,101 +2616,162 @@ public class Indicative {
 		 */
 		@Override
 		protected Integer doInBackground(Void... params) {
-            payload = payload.trim();
-            String payloadEndpoint = determineEndpointForPayload(payload);
-            payload = processPayload(payload);
+			int statusCode = upload();
+			onUploadComplete(statusCode);
+			return statusCode;
+		}
+
+		/**
+		 * Posts the payloads to the Indicative API endpoint.
+		 * 
+		 * @return 			The status code returned by Indicative, or 0 if the request failed
+		 */
+		private int upload() {
+            if (payloads.isEmpty()) {
+                return 400;
+            }
+
+            String first = payloads.get(0).trim();
+            String payloadEndpoint;
+            UploadBody payload = new UploadBody();
+            boolean encoded = false;
+            if (payloads.size() == 1) {
+                payloadEndpoint = determineEndpointForPayload(first);
+                appendPayload(payload, payloads.get(0));
+            } else {
+                payloadEndpoint = determineBatchEndpointForPayload(first);
+                boolean aliases = first.startsWith(Alias.PAYLOAD_PREFIX);
+                if (!aliases && getInstance().dictionaryBatches) {
+                    List<String> bodies = new ArrayList<String>(payloads.size());
+                    for (String queued : payloads) {
+                        bodies.add(processPayload(queued.trim()));
+                    }
+                    try {
+                        payload.append(BatchCodec.encode(getInstance().apiKey, bodies));
+                        encoded = true;
+                    } catch (IOException e) {
+                        reportError("Could not encode batch, sending it unencoded", e);
+                    }
+                }
+                if (!encoded) {
+                    buildBatchPayload(payload, aliases);
+                }
+            }
 
 			if (debug) {
 				Log.v("Indicative", "Async Task: Sending event: " +
                         payload + " to endpoint " + payloadEndpoint);
 			}
 
-			int statusCode = 0;
+			long start = System.nanoTime();
 
 			try {
-                HttpURLConnection con = null;
-                DataOutputStream wr = null;
-                boolean successful = false;
-
-                byte[] bodyBytes = payload.getBytes("UTF-8");
-
-                URL url = new URL(payloadEndpoint);
-                con = (HttpURLConnection) url.openConnection();
-                con.setRequestMethod("POST");
-                con.setRequestProperty("Accept-Charset", "UTF-8");
-                con.addRequestProperty("Content-Type", "application/json; charset=UTF-8");
-                con.setRequestProperty("Content-Length", "" + Integer.toString(bodyBytes.length));
-                con.addRequestProperty("Indicative-Client", "Android");
-
-                // Send post request
-                con.setDoOutput(true);
-                con.setDoInput(true);
-                con.setInstanceFollowRedirects(false);
-                con.setUseCaches(false);
-
-                wr = new DataOutputStream(con.getOutputStream());
-                wr.write(bodyBytes);
-                wr.flush();
-                wr.close();
-
-				statusCode = con.getResponseCode();
+                UploadClient.Response response = UploadClient.post(payloadEndpoint, payload,
+                        getInstance().gzipThresholdBytes, encoded ? BatchCodec.ENCODING : null, debug);
+				int statusCode = response.statusCode;
+				latencyMs = response.latencyMs;
 
 				if (debug) {
 					Log.v("Indicative", new StringBuilder("Status Code: ").append(Integer.toString(statusCode)).toString());
-					Log.d("Indicative", new StringBuilder("Response Body: ").append(inputStreamToString(con.getInputStream())).toString());
+					if (response.body != null) {
+						Log.d("Indicative", new StringBuilder("Response Body: ").append(response.body).toString());
+					}
+				}
+
+				if (UploadClient.isRetriable(statusCode)) {
+					retryAfterMs = response.retryAfterMs;
 				}
 
 				return statusCode;
+			} catch (IOException e) {
+				// Network failures are worth retrying.
+				latencyMs = (System.nanoTime() - start) / 1000000;
+				reportError(new StringBuilder("AsyncTask: ").append(e.getMessage()).toString(), e);
+				return 0;
 			} catch (Exception e) {
-				Log.v("Indicative", new StringBuilder("AsyncTask: ").append(e.getMessage()).toString(), e);
+				latencyMs = (System.nanoTime() - start) / 1000000;
+				reportError(new StringBuilder("AsyncTask: ").append(e.getMessage()).toString(), e);
 			}
 
 			return 400;
 		}
 
         /**
-		 * Removes the Event from SharedPreferences if it was posted successfully, 
-		 * or if it received a response indicating a non-retriable error.
+		 * Leaves the Event out of the queue if it was posted successfully, 
+		 * or if it received a response indicating a non-retriable error.  A retriable failure
+		 * is retried as the same batch after its backoff, still holding its lease on the queue,
+		 * until it has failed too often and is dead-lettered.  Runs on the upload thread rather
+		 * than in onPostExecute(), which would touch storage on the main looper.
 		 */
-		@Override
-		protected void onPostExecute(Integer result) {
+		private void onUploadComplete(int result) {
+            boolean retriable = UploadClient.isRetriable(result);
+            metrics.onUploadComplete(result, payloads.size(), latencyMs);
 
-            if (result != 0 && result != 408 && result != 500) {
+            if (!retriable) {
                 //do nothing, already removed in sendAllEvents
+                uploadBackoff.onSuccess();
                 if (debug) {
-                    Log.v("Indicative", new StringBuilder("Async Task: event successful ").append(payload).toString());
+                    Log.v("Indicative", new StringBuilder("Async Task: events successful ").append(payloads.size()).toString());
                 }
-			} else {
-                //add it back into shared prefs if that's the case
-                addEventToSharedPrefs(payload);
-                if (debug) {
-                    Log.v("Indicative", " Async Task: Retriable error occured");
+			} else if (window == null) {
+                // Sent without being queued; queue it now so the next flush retries it.
+                queuePayloads(payloads);
+                metrics.onEventsRetried(payloads.size(), 0, 0);
+            } else if (window.isOutstanding()) {
+                long delay = uploadBackoff.onFailure(attempts + 1, retryAfterMs, SystemClock.elapsedRealtime());
+                if (delay >= 0 && retryLater(delay)) {
+                    metrics.onEventsRetried(payloads.size(), 0, delay);
+                    if (debug) {
+                        Log.v("Indicative", " Async Task: Retriable error occured; retrying in " + delay + "ms");
+                    }
+                    onUploadFinished(false);
+                    return;
+                }
+                if (delay < 0) {
+                    for (String payload : payloads) {
+                        addDeadLetter(payload);
+                    }
+                    metrics.onEventsRetried(0, payloads.size(), 0);
                 }
             }
+
+            if (window != null) {
+                window.onUploadFinished();
+            }
+            onUploadFinished(!retriable);
 		}
 
 		/**
-		 * Converts the response's input stream to a String for readability.
-		 * 
-		 * @param is	The InputStream
-		 * 
-		 * @return 		A String representation of the InputStream
+		 * Sends the same payloads again once a delay has passed, keeping the lease on them until
+		 * then.  The retry is dropped if the lease expires in the meantime, since its events
+		 * have been handed out again by then.
+		 *
+		 * @param delayMs	How long to wait
+		 *
+		 * @return 			false if the lease has already expired
 		 */
-		private String inputStreamToString(InputStream is) {
-			String line = "";
-			StringBuilder total = new StringBuilder();
-
-			BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-
-			try {
-				while ((line = rd.readLine()) != null) {
-					total.append(line);
-				}
-			} catch (IOException e) {
-				Log.v("Indicative", new StringBuilder(" Async Task: ").append(e.getMessage()).toString(), e);
+		private boolean retryLater(long delayMs) {
+			final LeasedWindow window = this.window;
+			if (!window.extend(SystemClock.elapsedRealtime() + delayMs + UPLOAD_LEASE_MS)) {
+				return false;
 			}
-
-			return total.toString();
+			final SendEventAsyncTask retry = new SendEventAsyncTask(context, payloads);
+			retry.window = window;
+			retry.attempts = attempts + 1;
+
+			retryingUploads.incrementAndGet();
+			startWorker().postDelayed(new Runnable() {
+				@Override
+				public void run() {
+					if (window.isOutstanding()) {
+						submitUpload(retry);
+					} else {
+						window.onUploadFinished();
+					}
+					retryingUploads.decrementAndGet();
+				}
+			}, delayMs);
+			return true;
 		}
 
 		private String determineEndpointForPayload(String payload) {
@@ -864,13 +2784,66 @@ public class Indicative {
             }
         }
 
+        private String determineBatchEndpointForPayload(String payload) {
+            if (payload.startsWith(Alias.PAYLOAD_PREFIX)) {
+                return API_ALIAS_BATCH_ENDPOINT;
+            } else {
+                return API_EVENT_BATCH_ENDPOINT;
+            }
+        }
+
+        /**
+         * Wraps the queued payloads in a single batch request body.
+         *
+         * @param body      The body to add the batch to
+         * @param aliases   Whether the payloads are aliases rather than events
+         */
+        private void buildBatchPayload(UploadBody body, boolean aliases) {
+            body.append("{\"apiKey\":")
+                    .append(JSONObject.quote(getInstance().apiKey))
+                    .append(aliases ? ",\"aliases\":[" : ",\"events\":[");
+            for (int i = 0; i < payloads.size(); i++) {
+                if (i > 0) {
+                    body.append(",");
+                }
+                appendPayload(body, payloads.get(i));
+            }
+            body.append("]}");
+        }
+
+        /**
+         * Adds a queued payload's JSON to a request body, leaving out surrounding whitespace
+         * and the alias prefix without copying it.
+         *
+         * @param body      The request body
+         * @param queued    The payload, as stored
+         */
+        private void appendPayload(UploadBody body, String queued) {
+            int start = 0;
+            int end = queued.length();
+            while (start < end && queued.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && queued.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (queued.startsWith(Alias.PAYLOAD_PREFIX, start)) {
+                start += Alias.PAYLOAD_PREFIX.length();
+            } else if (queued.startsWith(PropertySnapshots.PAYLOAD_PREFIX, start)) {
+                // Merging in common properties builds a new string anyway.
+                body.append(withCommonProperties(queued.substring(start, end)));
+                return;
+            }
+            body.append(queued, start, end);
+        }
+
         private String processPayload(String payload) {
             if (payload == null || payload.isEmpty()) {
                 return null;
             } else if (payload.startsWith(Alias.PAYLOAD_PREFIX)) {
                 return payload.substring(Alias.PAYLOAD_PREFIX.length());
             } else {
-                return payload;
+                return withCommonProperties(payload);
             }
         }
 	}
@@ -0,0 +1,39 @@
+package com.indicative.client.android;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.PersistableBundle;
+
+/**
+ * Runs the upload jobs scheduled while flushes wait for a network, an unmetered network or
+ * charging.  It is declared in the library's manifest, so apps need not register it.  If the
+ * process was started just to run the job, the SDK is launched with the API key declared in the
+ * app's manifest, or else the one launch() was last called with.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class IndicativeJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        PersistableBundle extras = params.getExtras();
+        long deferredSince = extras == null ? 0 : extras.getLong(UploadScheduler.EXTRA_DEFERRED_SINCE, 0);
+
+        return Indicative.flushFromJob(getApplicationContext(), params.getJobId(), deferredSince, new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false);
+            }
+        });
+    }
+
+    /**
+     * The system stopped the job before its uploads finished.  Their events are still queued,
+     * so the job is run again later to send them.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return true;
+    }
+}
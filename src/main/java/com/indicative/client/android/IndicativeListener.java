@@ -0,0 +1,55 @@
+package com.indicative.client.android;
+
+/**
+ * Hears about what the SDK does with recorded events, for apps that want to monitor it.
+ * Register one with {@link Indicative#setListener(IndicativeListener)}.
+ *
+ * Callbacks arrive one at a time, in the order things happened, on the SDK's worker thread.
+ * They never run on the thread that called into the SDK, nor while the SDK holds a lock, so they
+ * may call Indicative's methods.  They should return quickly, since the worker thread also
+ * writes to the queue.  Exceptions they throw are logged and otherwise ignored.
+ */
+public interface IndicativeListener {
+
+    /**
+     * Queued events were taken from the queue to be uploaded.
+     *
+     * @param events    The number of events taken
+     * @param uploads   The number of requests they were split into
+     */
+    void onFlush(int events, int uploads);
+
+    /**
+     * An upload request finished.
+     *
+     * @param statusCode    The response's status code, or 0 if no response was received
+     * @param events        The number of events the request carried
+     * @param latencyMs     Milliseconds from opening the connection to receiving the status
+     */
+    void onUploadComplete(int statusCode, int events, long latencyMs);
+
+    /**
+     * Events from a failed upload will be sent again, or were given up on.
+     *
+     * @param retried       The number of events that will be sent again
+     * @param deadLettered  The number of events given up on after too many failures
+     * @param delayMs       How long the retried events wait before they are sent again
+     */
+    void onEventsRetried(int retried, int deadLettered, long delayMs);
+
+    /**
+     * Events were discarded because the queue was full.
+     *
+     * @param events    The number of events discarded
+     */
+    void onEventsDropped(int events);
+
+    /**
+     * Something went wrong that the SDK worked around, usually by not storing or sending
+     * something.
+     *
+     * @param message   What went wrong
+     * @param error     The cause, if there was one
+     */
+    void onError(String message, Throwable error);
+}
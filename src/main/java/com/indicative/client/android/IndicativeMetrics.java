@@ -0,0 +1,192 @@
+package com.indicative.client.android;
+
+/**
+ * A snapshot of the SDK's counters, from {@link Indicative#getMetrics()}.  Counts run from when
+ * the process started.
+ */
+public final class IndicativeMetrics {
+
+    /**
+     * Counts of values that fell in each of a set of ranges.  Bucket i holds values no greater
+     * than bound i (and greater than bound i - 1); the last bucket holds values greater than
+     * every bound.
+     */
+    public static final class Histogram {
+        private final long[] bounds;
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+
+        Histogram(long[] bounds, long[] buckets, long count, long sum) {
+            this.bounds = bounds;
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * @return  The upper bound of each bucket but the last
+         */
+        public long[] getBounds() {
+            return bounds.clone();
+        }
+
+        /**
+         * @return  The number of values in each bucket; one longer than getBounds()
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return  The mean value, or 0 if there are none
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+
+    private final int queuedEvents;
+    private final long queuedBytes;
+    private final long storageBytes;
+    private final int deadLetterEvents;
+    private final Histogram recordEventMicros;
+    private final Histogram flushEvents;
+    private final Histogram uploadLatencyMs;
+    private final long[] statusCounts;
+    private final long uploadedEvents;
+    private final long retriedEvents;
+    private final long deadLetteredEvents;
+    private final long droppedEvents;
+    private final long throttledEvents;
+    private final long errors;
+
+    IndicativeMetrics(int queuedEvents, long queuedBytes, long storageBytes, int deadLetterEvents,
+                      Histogram recordEventMicros, Histogram flushEvents, Histogram uploadLatencyMs,
+                      long[] statusCounts, long uploadedEvents, long retriedEvents,
+                      long deadLetteredEvents, long droppedEvents, long throttledEvents, long errors) {
+        this.queuedEvents = queuedEvents;
+        this.queuedBytes = queuedBytes;
+        this.storageBytes = storageBytes;
+        this.deadLetterEvents = deadLetterEvents;
+        this.recordEventMicros = recordEventMicros;
+        this.flushEvents = flushEvents;
+        this.uploadLatencyMs = uploadLatencyMs;
+        this.statusCounts = statusCounts;
+        this.uploadedEvents = uploadedEvents;
+        this.retriedEvents = retriedEvents;
+        this.deadLetteredEvents = deadLetteredEvents;
+        this.droppedEvents = droppedEvents;
+        this.throttledEvents = throttledEvents;
+        this.errors = errors;
+    }
+
+    /**
+     * @return  Events waiting to be sent, including ones being uploaded right now
+     */
+    public int getQueuedEvents() {
+        return queuedEvents;
+    }
+
+    /**
+     * @return  The size of the queued events, in bytes
+     */
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return  The space the queue takes up on disk, in bytes
+     */
+    public long getStorageBytes() {
+        return storageBytes;
+    }
+
+    /**
+     * @return  Events kept after too many failed uploads
+     */
+    public int getDeadLetterEvents() {
+        return deadLetterEvents;
+    }
+
+    /**
+     * @return  Microseconds each recordEvent() call spent on the caller's thread
+     */
+    public Histogram getRecordEventMicros() {
+        return recordEventMicros;
+    }
+
+    /**
+     * @return  Events taken from the queue by each flush
+     */
+    public Histogram getFlushEvents() {
+        return flushEvents;
+    }
+
+    /**
+     * @return  Milliseconds from opening each upload's connection to receiving its status
+     */
+    public Histogram getUploadLatencyMs() {
+        return uploadLatencyMs;
+    }
+
+    /**
+     * @param statusClass   1 through 5 for 1xx through 5xx responses, 0 for uploads that got no
+     *                      response, or 6 for any other status
+     *
+     * @return              Uploads that finished with a status in that class
+     */
+    public long getStatusCount(int statusClass) {
+        return statusClass >= 0 && statusClass < statusCounts.length ? statusCounts[statusClass] : 0;
+    }
+
+    /**
+     * @return  Events carried by finished uploads, whatever their outcome
+     */
+    public long getUploadedEvents() {
+        return uploadedEvents;
+    }
+
+    /**
+     * @return  Events queued again after a failed upload
+     */
+    public long getRetriedEvents() {
+        return retriedEvents;
+    }
+
+    /**
+     * @return  Events given up on after too many failed uploads
+     */
+    public long getDeadLetteredEvents() {
+        return deadLetteredEvents;
+    }
+
+    /**
+     * @return  Events discarded because the queue was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    /**
+     * @return  Events dropped by their sampling rate or rate limit
+     */
+    public long getThrottledEvents() {
+        return throttledEvents;
+    }
+
+    /**
+     * @return  Errors reported to {@link IndicativeListener#onError}
+     */
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,404 @@
+package com.indicative.client.android;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Event store backed by a fixed-size ring file mapped into memory.  Records are
+ * length-prefixed UTF-8 like in {@link EventJournal}, written straight into the mapping with no
+ * system call per append; the head and tail positions live in a small header at the start of
+ * the file.  The page cache writes the mapping back, so records survive the process dying but
+ * not necessarily the device losing power.
+ *
+ * Positions are byte offsets that only ever grow; a position's place in the file is taken
+ * modulo the ring's capacity.  A record that would run past the end of the ring starts over at
+ * the beginning instead, leaving a wrap marker behind.
+ */
+final class MappedRingEventStore implements EventStore {
+
+    // "IRB1"
+    private static final int MAGIC = 0x49524231;
+
+    // Magic, capacity, head and tail.
+    private static final int HEADER_BYTES = 24;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    // Written where a record did not fit before the end of the ring.
+    private static final int WRAP_MARKER = -1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+    private final int capacity;
+
+    // The oldest record not yet consumed, and the position just past the newest record.
+    private long head;
+    private long tail;
+
+    // Outstanding and acknowledged batches not yet behind the head, in ring order.  Records
+    // between them were in batches that were released, and are handed out again first.
+    private final LinkedList<Lease> leases = new LinkedList<Lease>();
+    private int leasedCount;
+
+    private int count;
+    private long liveBytes;
+
+    /**
+     * A bounded run of records read from the ring, and the positions it spans.
+     */
+    private static final class Window {
+        final List<String> records = new ArrayList<String>();
+        long start;
+        long end;
+        long bytes;
+    }
+
+    private static final class Lease extends Batch {
+        final long start;
+        final long end;
+
+        Lease(Window window, long expiresAt) {
+            super(window.records, window.bytes, expiresAt);
+            this.start = window.start;
+            this.end = window.end;
+        }
+    }
+
+    /**
+     * Opens the ring file, creating it if needed.  An existing file keeps the capacity it was
+     * created with.
+     *
+     * @param path      The ring file
+     * @param capacity  The number of bytes of records a new ring file can hold
+     */
+    MappedRingEventStore(File path, int capacity) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        try {
+            boolean existing = file.length() >= HEADER_BYTES;
+            if (existing) {
+                file.seek(0);
+                if (file.readInt() == MAGIC) {
+                    capacity = file.readInt();
+                } else {
+                    existing = false;
+                }
+            }
+            if (file.length() < HEADER_BYTES + (long) capacity) {
+                file.setLength(HEADER_BYTES + (long) capacity);
+            }
+            this.capacity = capacity;
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+
+            if (existing) {
+                head = map.getLong(HEAD_OFFSET);
+                tail = map.getLong(TAIL_OFFSET);
+            }
+            if (!existing || head < 0 || tail < head || tail - head > capacity) {
+                if (existing) {
+                    Log.v("Indicative", "Event ring file was damaged; starting over");
+                }
+                head = 0;
+                tail = 0;
+                map.putInt(0, MAGIC);
+                map.putInt(4, capacity);
+                writeHeader();
+            }
+
+            Window all = read(head, tail, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+            count = all.records.size();
+            liveBytes = all.bytes;
+            if (all.end < tail) {
+                // A damaged record; drop it and everything after it.
+                tail = all.end;
+                writeHeader();
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void append(String payload) throws IOException {
+        append(Collections.singletonList(payload));
+    }
+
+    /**
+     * Appends payloads to the ring, failing without writing any of them unless all of them
+     * fit.  The header is written once, after the last record.
+     */
+    @Override
+    public synchronized void append(List<String> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        byte[][] encoded = new byte[payloads.size()][];
+        long recordBytes = 0;
+        int largest = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            byte[] bytes = payloads.get(i).getBytes("UTF-8");
+            if (bytes.length > MAX_RECORD_BYTES || 4 + bytes.length > capacity) {
+                throw new IOException("Payload of " + bytes.length + " bytes is too large to queue");
+            }
+            encoded[i] = bytes;
+            recordBytes += 4 + bytes.length;
+            largest = Math.max(largest, 4 + bytes.length);
+        }
+        // Room for every record, plus whatever is lost where one of them wraps.
+        if (tail - head + recordBytes + largest > capacity) {
+            throw new IOException("Event ring file is full");
+        }
+
+        for (byte[] bytes : encoded) {
+            int recordLength = 4 + bytes.length;
+            int index = (int) (tail % capacity);
+            if (capacity - index < recordLength) {
+                if (capacity - index >= 4) {
+                    map.putInt(HEADER_BYTES + index, WRAP_MARKER);
+                }
+                tail += capacity - index;
+                index = 0;
+            }
+            map.putInt(HEADER_BYTES + index, bytes.length);
+            map.position(HEADER_BYTES + index + 4);
+            map.put(bytes);
+            tail += recordLength;
+            liveBytes += bytes.length;
+        }
+        writeHeader();
+        count += encoded.length;
+    }
+
+    @Override
+    public synchronized Batch peekBatch(int maxRecords, int maxBytes, long expiresAt) throws IOException {
+        return lease(nextWindow(maxRecords, maxBytes, true), expiresAt);
+    }
+
+    @Override
+    public synchronized boolean ack(Batch batch) throws IOException {
+        Lease lease = (Lease) batch;
+        if (!lease.outstanding) {
+            return false;
+        }
+        lease.outstanding = false;
+        count = Math.max(0, count - lease.records.size());
+        liveBytes = Math.max(0, liveBytes - lease.bytes);
+        leasedCount -= lease.records.size();
+
+        // Move the head past every acknowledged batch at the front, but not past records
+        // released back to the ring.
+        boolean moved = false;
+        while (!leases.isEmpty() && !leases.getFirst().outstanding && leases.getFirst().start == head) {
+            head = leases.removeFirst().end;
+            moved = true;
+        }
+        if (moved) {
+            writeHeader();
+        }
+        return true;
+    }
+
+    /**
+     * Gives a batch's records up so they are handed out again, ahead of anything newer.  They
+     * stay where they are in the ring and nothing is written, so releasing works however full
+     * the ring is.
+     */
+    @Override
+    public synchronized boolean release(Batch batch) {
+        Lease lease = (Lease) batch;
+        if (!lease.outstanding) {
+            return false;
+        }
+        lease.outstanding = false;
+        leases.remove(lease);
+        leasedCount -= lease.records.size();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isOutstanding(Batch batch) {
+        return batch.outstanding;
+    }
+
+    @Override
+    public synchronized boolean extend(Batch batch, long expiresAt) {
+        if (!batch.outstanding) {
+            return false;
+        }
+        batch.expiresAt = Math.max(batch.expiresAt, expiresAt);
+        return true;
+    }
+
+    @Override
+    public synchronized int releaseExpired(long now) {
+        List<Lease> expired = new ArrayList<Lease>();
+        for (Lease lease : leases) {
+            if (lease.outstanding && lease.expiresAt <= now) {
+                expired.add(lease);
+            }
+        }
+        for (Lease lease : expired) {
+            release(lease);
+        }
+        return expired.size();
+    }
+
+    @Override
+    public synchronized Batch take(int maxRecords, int maxBytes) throws IOException {
+        Batch batch = lease(nextWindow(maxRecords, maxBytes, true), Long.MAX_VALUE);
+        ack(batch);
+        return batch;
+    }
+
+    @Override
+    public synchronized int skip(int maxRecords) throws IOException {
+        Batch batch = lease(nextWindow(maxRecords, Integer.MAX_VALUE, false), Long.MAX_VALUE);
+        ack(batch);
+        return batch.records.size();
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count - leasedCount;
+    }
+
+    @Override
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public long sizeBytes() {
+        return HEADER_BYTES + (long) capacity;
+    }
+
+    /**
+     * @return  The ring's capacity, less the most that can be lost where a record wraps
+     */
+    @Override
+    public long maxBytes() {
+        return Math.max(0, capacity - Math.min(capacity / 2, MAX_RECORD_BYTES));
+    }
+
+    @Override
+    public synchronized boolean hasRoom(int payloadBytes) {
+        // Room for the record, plus whatever is lost if it wraps.
+        return tail - head + 2L * (4 + payloadBytes) <= capacity;
+    }
+
+    @Override
+    public synchronized void close() {
+        map.force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.v("Indicative", "Could not close event ring file", e);
+        }
+    }
+
+    private Lease lease(Window window, long expiresAt) {
+        Lease lease = new Lease(window, expiresAt);
+        if (!window.records.isEmpty()) {
+            leasedCount += window.records.size();
+            ListIterator<Lease> later = leases.listIterator();
+            while (later.hasNext()) {
+                if (later.next().start > lease.start) {
+                    later.previous();
+                    break;
+                }
+            }
+            later.add(lease);
+        }
+        return lease;
+    }
+
+    /**
+     * Reads the oldest records in no batch: first any released back to the ring, then those
+     * past every batch handed out.
+     */
+    private Window nextWindow(int maxRecords, int maxBytes, boolean payloads) throws IOException {
+        long from = head;
+        for (Lease lease : leases) {
+            if (from < lease.start) {
+                Window window = read(from, lease.start, maxRecords, maxBytes, payloads);
+                if (!window.records.isEmpty()) {
+                    return window;
+                }
+            }
+            from = Math.max(from, lease.end);
+        }
+        return read(from, tail, maxRecords, maxBytes, payloads);
+    }
+
+    /**
+     * Reads records from a position onward.
+     *
+     * @param from          The position to start at
+     * @param to            The position to stop at
+     * @param maxRecords    The maximum number of records to return
+     * @param maxBytes      The maximum combined payload size to return; at least one record is
+     *                      always returned when there is one
+     * @param payloads      Whether to decode payloads, or only walk past them (returning nulls)
+     */
+    private Window read(long from, long to, int maxRecords, int maxBytes, boolean payloads) throws IOException {
+        Window window = new Window();
+        window.start = from;
+        long position = from;
+
+        while (window.records.size() < maxRecords && position < to) {
+            int index = (int) (position % capacity);
+            if (capacity - index < 4) {
+                position += capacity - index;
+                continue;
+            }
+            int length = map.getInt(HEADER_BYTES + index);
+            if (length == WRAP_MARKER) {
+                position += capacity - index;
+                continue;
+            }
+            if (length < 0 || length > MAX_RECORD_BYTES || index + 4 + length > capacity
+                    || position + 4 + length > tail) {
+                Log.v("Indicative", "Skipping damaged records in event ring file");
+                break;
+            }
+            if (!window.records.isEmpty() && window.bytes + length > maxBytes) {
+                break;
+            }
+            if (payloads) {
+                byte[] payload = new byte[length];
+                map.position(HEADER_BYTES + index + 4);
+                map.get(payload);
+                window.records.add(new String(payload, "UTF-8"));
+            } else {
+                window.records.add(null);
+            }
+            window.bytes += length;
+            position += 4 + length;
+        }
+
+        window.end = position;
+        return window;
+    }
+
+    private void writeHeader() {
+        map.putLong(HEAD_OFFSET, head);
+        map.putLong(TAIL_OFFSET, tail);
+    }
+}
@@ -0,0 +1,229 @@
+package com.indicative.client.android;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Counts what the SDK does, for {@link Indicative#getMetrics()}, and passes the same happenings
+ * on to the app's {@link IndicativeListener}.  Everything is counted in striped counters, so
+ * recording from many threads at once takes no locks.  Counters are updated on the spot; the
+ * listener is called later through the executor, so that it never runs on a thread that called
+ * into the SDK or while the SDK holds a lock.
+ */
+final class MetricsRecorder {
+
+    // Upper bounds of the histogram buckets; one more bucket holds everything above the last.
+    static final long[] RECORD_MICROS_BOUNDS = { 10, 50, 100, 500, 1000, 5000, 10000 };
+    static final long[] FLUSH_EVENTS_BOUNDS = { 1, 10, 50, 100, 500, 1000 };
+    static final long[] UPLOAD_MILLIS_BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    // Status classes: network failures, then 1xx through 5xx, then anything else.
+    static final int STATUS_CLASSES = 7;
+
+    // Counter layout.  Each histogram is its buckets, then its count and sum.
+    private static final int RECORD_HISTOGRAM = 0;
+    private static final int FLUSH_HISTOGRAM = RECORD_HISTOGRAM + histogramSize(RECORD_MICROS_BOUNDS);
+    private static final int UPLOAD_HISTOGRAM = FLUSH_HISTOGRAM + histogramSize(FLUSH_EVENTS_BOUNDS);
+    private static final int STATUS = UPLOAD_HISTOGRAM + histogramSize(UPLOAD_MILLIS_BOUNDS);
+    private static final int UPLOADED_EVENTS = STATUS + STATUS_CLASSES;
+    private static final int RETRIED_EVENTS = UPLOADED_EVENTS + 1;
+    private static final int DEAD_LETTERED_EVENTS = RETRIED_EVENTS + 1;
+    private static final int DROPPED_EVENTS = DEAD_LETTERED_EVENTS + 1;
+    private static final int THROTTLED_EVENTS = DROPPED_EVENTS + 1;
+    private static final int ERRORS = THROTTLED_EVENTS + 1;
+    private static final int COUNTERS = ERRORS + 1;
+
+    private final StripedCounters counters = new StripedCounters(COUNTERS);
+    private final Executor callbackExecutor;
+
+    private volatile IndicativeListener listener;
+
+    /**
+     * @param callbackExecutor  Runs the listener's callbacks, one at a time and in order
+     */
+    MetricsRecorder(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    void setListener(IndicativeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param nanos     Time recordEvent() spent on the caller's thread
+     */
+    void onEventRecorded(long nanos) {
+        addToHistogram(RECORD_HISTOGRAM, RECORD_MICROS_BOUNDS, nanos / 1000);
+    }
+
+    /**
+     * @param events    Events taken from the queue
+     * @param uploads   Requests they were split into
+     */
+    void onFlush(final int events, final int uploads) {
+        addToHistogram(FLUSH_HISTOGRAM, FLUSH_EVENTS_BOUNDS, events);
+        final IndicativeListener listener = this.listener;
+        if (listener != null) {
+            dispatch("onFlush", new Runnable() {
+                @Override
+                public void run() {
+                    listener.onFlush(events, uploads);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param statusCode    The response's status code, or 0 if the request failed
+     * @param events        Events the request carried
+     * @param latencyMs     Time from opening the connection to reading the status
+     */
+    void onUploadComplete(final int statusCode, final int events, final long latencyMs) {
+        addToHistogram(UPLOAD_HISTOGRAM, UPLOAD_MILLIS_BOUNDS, latencyMs);
+        counters.increment(STATUS + statusClass(statusCode));
+        counters.add(UPLOADED_EVENTS, events);
+        final IndicativeListener listener = this.listener;
+        if (listener != null) {
+            dispatch("onUploadComplete", new Runnable() {
+                @Override
+                public void run() {
+                    listener.onUploadComplete(statusCode, events, latencyMs);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param retried       Events that will be sent again
+     * @param deadLettered  Events given up on
+     * @param delayMs       How long the retried events wait
+     */
+    void onEventsRetried(final int retried, final int deadLettered, final long delayMs) {
+        counters.add(RETRIED_EVENTS, retried);
+        counters.add(DEAD_LETTERED_EVENTS, deadLettered);
+        final IndicativeListener listener = this.listener;
+        if (listener != null) {
+            dispatch("onEventsRetried", new Runnable() {
+                @Override
+                public void run() {
+                    listener.onEventsRetried(retried, deadLettered, delayMs);
+                }
+            });
+        }
+    }
+
+    void onEventsDropped(final int events) {
+        counters.add(DROPPED_EVENTS, events);
+        final IndicativeListener listener = this.listener;
+        if (listener != null) {
+            dispatch("onEventsDropped", new Runnable() {
+                @Override
+                public void run() {
+                    listener.onEventsDropped(events);
+                }
+            });
+        }
+    }
+
+    /**
+     * An event was dropped by its sampling rate or rate limit.
+     */
+    void onEventThrottled() {
+        counters.increment(THROTTLED_EVENTS);
+    }
+
+    void onError(final String message, final Throwable error) {
+        counters.increment(ERRORS);
+        final IndicativeListener listener = this.listener;
+        if (listener != null) {
+            dispatch("onError", new Runnable() {
+                @Override
+                public void run() {
+                    listener.onError(message, error);
+                }
+            });
+        }
+    }
+
+    long droppedEvents() {
+        return counters.sum(DROPPED_EVENTS);
+    }
+
+    /**
+     * @param queuedEvents      Events in the queue now
+     * @param queuedBytes       Size of the queued events
+     * @param storageBytes      Space the queue takes up on disk
+     * @param deadLetters       Events kept after too many failed uploads
+     */
+    IndicativeMetrics snapshot(int queuedEvents, long queuedBytes, long storageBytes, int deadLetters) {
+        long[] statusCounts = new long[STATUS_CLASSES];
+        for (int i = 0; i < STATUS_CLASSES; i++) {
+            statusCounts[i] = counters.sum(STATUS + i);
+        }
+        return new IndicativeMetrics(queuedEvents, queuedBytes, storageBytes, deadLetters,
+                histogram(RECORD_HISTOGRAM, RECORD_MICROS_BOUNDS),
+                histogram(FLUSH_HISTOGRAM, FLUSH_EVENTS_BOUNDS),
+                histogram(UPLOAD_HISTOGRAM, UPLOAD_MILLIS_BOUNDS),
+                statusCounts,
+                counters.sum(UPLOADED_EVENTS),
+                counters.sum(RETRIED_EVENTS),
+                counters.sum(DEAD_LETTERED_EVENTS),
+                counters.sum(DROPPED_EVENTS),
+                counters.sum(THROTTLED_EVENTS),
+                counters.sum(ERRORS));
+    }
+
+    /**
+     * @return  The slot a status code is counted in
+     */
+    static int statusClass(int statusCode) {
+        if (statusCode <= 0) {
+            return 0;
+        }
+        int hundreds = statusCode / 100;
+        return hundreds >= 1 && hundreds <= 5 ? hundreds : STATUS_CLASSES - 1;
+    }
+
+    /**
+     * Hands a listener callback to the executor, logging anything it throws.
+     *
+     * @param name      The callback's name, for the log
+     * @param callback  Calls the listener
+     */
+    private void dispatch(final String name, final Runnable callback) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    Log.v("Indicative", "IndicativeListener." + name + " threw", e);
+                }
+            }
+        });
+    }
+
+    private void addToHistogram(int base, long[] bounds, long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        counters.increment(base + bucket);
+        counters.increment(base + bounds.length + 1);
+        counters.add(base + bounds.length + 2, value);
+    }
+
+    private IndicativeMetrics.Histogram histogram(int base, long[] bounds) {
+        long[] buckets = new long[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = counters.sum(base + i);
+        }
+        return new IndicativeMetrics.Histogram(bounds, buckets,
+                counters.sum(base + bounds.length + 1), counters.sum(base + bounds.length + 2));
+    }
+
+    private static int histogramSize(long[] bounds) {
+        return bounds.length + 3;
+    }
+}
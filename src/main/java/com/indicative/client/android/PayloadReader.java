@@ -0,0 +1,232 @@
+package com.indicative.client.android;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the JSON that {@link PayloadWriter} writes back into {@link PropertyValue}s.  Whole
+ * numbers that fit in a long come back as longs, other numbers as doubles.
+ */
+final class PayloadReader {
+
+    private final String json;
+    private int pos;
+
+    private PayloadReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * @param json  A JSON document
+     *
+     * @return      Its value
+     */
+    static PropertyValue parse(String json) throws IOException {
+        PayloadReader reader = new PayloadReader(json);
+        PropertyValue value = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos < json.length()) {
+            throw reader.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    private PropertyValue value() throws IOException {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        char c = json.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return PropertyValue.of(string());
+            case 't':
+                literal("true");
+                return PropertyValue.TRUE;
+            case 'f':
+                literal("false");
+                return PropertyValue.FALSE;
+            case 'n':
+                literal("null");
+                return PropertyValue.NULL;
+            default:
+                return number();
+        }
+    }
+
+    private PropertyValue object() throws IOException {
+        pos++;
+        Map<String, PropertyValue> members = new LinkedHashMap<String, PropertyValue>();
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return PropertyValue.object(members);
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            members.put(name, value());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return PropertyValue.object(members);
+            } else if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private PropertyValue array() throws IOException {
+        pos++;
+        List<PropertyValue> elements = new ArrayList<PropertyValue>();
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return PropertyValue.array(elements);
+        }
+        while (true) {
+            elements.add(value());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return PropertyValue.array(elements);
+            } else if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String string() throws IOException {
+        pos++;
+        StringBuilder s = null;
+        int start = pos;
+        while (true) {
+            if (pos >= json.length()) {
+                throw error("Unterminated string");
+            }
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return s == null ? json.substring(start, pos - 1) : s.append(json, start, pos - 1).toString();
+            }
+            if (c != '\\') {
+                continue;
+            }
+            if (s == null) {
+                s = new StringBuilder();
+            }
+            s.append(json, start, pos - 1);
+            char escaped = next();
+            switch (escaped) {
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        s.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    s.append(escaped);
+                    break;
+            }
+            start = pos;
+        }
+    }
+
+    private PropertyValue number() throws IOException {
+        int start = pos;
+        boolean whole = true;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                whole = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String text = json.substring(start, pos);
+        try {
+            if (whole) {
+                try {
+                    return PropertyValue.of(Long.parseLong(text));
+                } catch (NumberFormatException e) {
+                    // Too large for a long.
+                }
+            }
+            return PropertyValue.of(Double.parseDouble(text));
+        } catch (NumberFormatException e) {
+            throw error("Bad value");
+        }
+    }
+
+    private void literal(String word) throws IOException {
+        if (!json.startsWith(word, pos)) {
+            throw error("Bad value");
+        }
+        pos += word.length();
+    }
+
+    private void expect(char c) throws IOException {
+        if (next() != c) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private char peek() throws IOException {
+        if (pos >= json.length()) {
+            throw error("Unexpected end of JSON");
+        }
+        return json.charAt(pos);
+    }
+
+    private char next() throws IOException {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at character " + pos);
+    }
+}
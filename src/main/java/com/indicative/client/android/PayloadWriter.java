@@ -0,0 +1,373 @@
+package com.indicative.client.android;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer that encodes straight to UTF-8 in a growable byte buffer.  Payloads are
+ * written without building a JSONObject tree or intermediate Strings, and each thread reuses
+ * one buffer across payloads.
+ */
+final class PayloadWriter {
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    // Buffers that grew past this are dropped on reset rather than kept for reuse.
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    // Valid in JSON but not in JavaScript source, so escaped like org.json does.
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+
+    private static final ThreadLocal<PayloadWriter> LOCAL = new ThreadLocal<PayloadWriter>() {
+        @Override
+        protected PayloadWriter initialValue() {
+            return new PayloadWriter();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+
+    // Whether the next value or name is the first in its object or array.
+    private boolean first = true;
+
+    /**
+     * @return  This thread's writer, emptied and ready for a new payload
+     */
+    static PayloadWriter local() {
+        PayloadWriter writer = LOCAL.get();
+        writer.reset();
+        return writer;
+    }
+
+    void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        length = 0;
+        first = true;
+    }
+
+    PayloadWriter beginObject() {
+        separate();
+        put((byte) '{');
+        first = true;
+        return this;
+    }
+
+    PayloadWriter endObject() {
+        put((byte) '}');
+        first = false;
+        return this;
+    }
+
+    PayloadWriter beginArray() {
+        separate();
+        put((byte) '[');
+        first = true;
+        return this;
+    }
+
+    PayloadWriter endArray() {
+        put((byte) ']');
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes an object member's name; the member's value must be written next.
+     */
+    PayloadWriter name(String name) {
+        separate();
+        string(name);
+        put((byte) ':');
+        first = true;
+        return this;
+    }
+
+    PayloadWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        first = false;
+        return this;
+    }
+
+    PayloadWriter value(long value) {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+        } else {
+            digits(value);
+        }
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes a double the way org.json does: whole numbers without a fraction, and NaN or
+     * infinities (which JSON cannot represent) as null.
+     */
+    PayloadWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        if (value == (long) value) {
+            return value((long) value);
+        }
+        separate();
+        ascii(Double.toString(value));
+        first = false;
+        return this;
+    }
+
+    PayloadWriter value(boolean value) {
+        separate();
+        ascii(value ? "true" : "false");
+        first = false;
+        return this;
+    }
+
+    PayloadWriter nullValue() {
+        separate();
+        ascii("null");
+        first = false;
+        return this;
+    }
+
+    /**
+     * Writes any property value: PropertyValues, Strings, numbers, Booleans, Maps, Collections
+     * and arrays are written as their JSON equivalents, anything else as its toString().
+     */
+    PayloadWriter value(Object value) {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof PropertyValue) {
+            ((PropertyValue) value).writeJson(this);
+            return this;
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object element : (Collection<?>) value) {
+                value(element);
+            }
+            return endArray();
+        } else if (value.getClass().isArray()) {
+            beginArray();
+            for (int i = 0, n = Array.getLength(value); i < n; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        } else {
+            return value(value.toString());
+        }
+    }
+
+    /**
+     * Appends text verbatim, outside of any JSON structure (e.g. a payload prefix).
+     */
+    PayloadWriter raw(String text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else {
+                utf8(text, i, c);
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Counts the bytes a String occupies once encoded as UTF-8, without encoding it.
+     */
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates are encoded as '?', like String.getBytes() does.
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer, 0, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void separate() {
+        if (!first) {
+            put((byte) ',');
+        }
+    }
+
+    private void string(String s) {
+        put((byte) '"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    escape('"');
+                    break;
+                case '\\':
+                    escape('\\');
+                    break;
+                case '\n':
+                    escape('n');
+                    break;
+                case '\r':
+                    escape('r');
+                    break;
+                case '\t':
+                    escape('t');
+                    break;
+                case '\b':
+                    escape('b');
+                    break;
+                case '\f':
+                    escape('f');
+                    break;
+                default:
+                    if (c < 0x20 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                        unicodeEscape(c);
+                    } else if (c < 0x80) {
+                        put((byte) c);
+                    } else {
+                        utf8(s, i, c);
+                        if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                            i++;
+                        }
+                    }
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void escape(char c) {
+        ensure(2);
+        buffer[length++] = '\\';
+        buffer[length++] = (byte) c;
+    }
+
+    private void unicodeEscape(char c) {
+        ensure(6);
+        buffer[length++] = '\\';
+        buffer[length++] = 'u';
+        buffer[length++] = HEX[(c >> 12) & 0xf];
+        buffer[length++] = HEX[(c >> 8) & 0xf];
+        buffer[length++] = HEX[(c >> 4) & 0xf];
+        buffer[length++] = HEX[c & 0xf];
+    }
+
+    /**
+     * Encodes a non-ASCII character, combining it with the following low surrogate if it is
+     * the first half of a pair.  Unpaired surrogates are written as '?'.
+     */
+    private void utf8(String s, int i, char c) {
+        ensure(4);
+        if (c < 0x800) {
+            buffer[length++] = (byte) (0xc0 | (c >> 6));
+            buffer[length++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            buffer[length++] = '?';
+        } else {
+            buffer[length++] = (byte) (0xe0 | (c >> 12));
+            buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[length++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void digits(long value) {
+        ensure(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    private void ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer[length++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
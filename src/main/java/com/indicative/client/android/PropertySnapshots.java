@@ -0,0 +1,194 @@
+package com.indicative.client.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saved versions of the common properties, so queued events can refer to the version in effect
+ * when they were recorded instead of each carrying a copy of it.  A queued event that refers to
+ * a version is stored as {@code "S<version>:"} followed by its JSON without the common
+ * properties; {@link #expand} merges them back in when the event is uploaded.
+ *
+ * Each version is written to its own file in the common properties file's format the first
+ * time an event refers to it.
+ */
+final class PropertySnapshots {
+
+    static final String PAYLOAD_PREFIX = "S";
+
+    // Versions read back for uploads, most recently used last.
+    private static final int CACHED_VERSIONS = 8;
+
+    /**
+     * The version events are currently recorded against.  Never changed in place.
+     */
+    private static final class Current {
+        final Map<String, PropertyValue> properties;
+        final long version;
+
+        Current(Map<String, PropertyValue> properties, long version) {
+            this.properties = properties;
+            this.version = version;
+        }
+    }
+
+    private final File dir;
+
+    // Guarded by this.
+    private long nextVersion;
+    private final Map<Long, Map<String, PropertyValue>> cache =
+            new LinkedHashMap<Long, Map<String, PropertyValue>>(CACHED_VERSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Map<String, PropertyValue>> eldest) {
+                    return size() > CACHED_VERSIONS;
+                }
+            };
+
+    // Read without locking on the record path.
+    private volatile Current current;
+
+    /**
+     * @param dir   The directory the versions are saved in, created if need be
+     */
+    PropertySnapshots(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        long latest = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                latest = Math.max(latest, parseVersion(name));
+            }
+        }
+        nextVersion = latest + 1;
+    }
+
+    /**
+     * Stores an event so that it refers to a version of the common properties.  Call this
+     * holding the queue's lock, and append the result before releasing it, so that
+     * {@link #prune} cannot delete the version in between.
+     *
+     * @param payload       The event's JSON, without the common properties
+     * @param properties    The common properties in effect when the event was recorded; the
+     *                      same unmodifiable Map for as long as they do not change
+     *
+     * @return              The payload to queue
+     */
+    String reference(String payload, Map<String, PropertyValue> properties) throws IOException {
+        return PAYLOAD_PREFIX + version(properties) + ":" + payload;
+    }
+
+    /**
+     * Turns a queued payload back into the event's full JSON.  If its version of the common
+     * properties cannot be read, the event is sent without them.
+     *
+     * @param payload   The payload as queued
+     *
+     * @return          The event's JSON
+     */
+    String expand(String payload) {
+        if (!payload.startsWith(PAYLOAD_PREFIX)) {
+            return payload;
+        }
+        int colon = payload.indexOf(':');
+        long version = colon < 0 ? -1 : parseVersion(payload.substring(PAYLOAD_PREFIX.length(), colon));
+        if (version <= 0) {
+            return payload;
+        }
+        String json = payload.substring(colon + 1);
+        try {
+            Map<String, PropertyValue> common = get(version);
+            Map<String, PropertyValue> event =
+                    new LinkedHashMap<String, PropertyValue>(PayloadReader.parse(json).objectValue());
+            Map<String, PropertyValue> properties = new LinkedHashMap<String, PropertyValue>(common);
+            PropertyValue own = event.get("properties");
+            if (own != null) {
+                // The event's own properties win over common properties of the same name.
+                properties.putAll(own.objectValue());
+            }
+            event.put("properties", PropertyValue.object(properties));
+            PayloadWriter writer = new PayloadWriter();
+            PropertyValue.object(event).writeJson(writer);
+            return writer.toString();
+        } catch (IOException e) {
+            Indicative.reportError("Could not add common properties to a queued event", e);
+            return json;
+        }
+    }
+
+    /**
+     * Deletes every saved version but the current one, if the queue is empty.  The queue's lock
+     * is held throughout, so no event can be referenced and queued meanwhile.
+     *
+     * @param queue The queue events referring to versions are appended to
+     */
+    void prune(EventStore queue) {
+        synchronized (queue) {
+            if (queue.count() > 0) {
+                return;
+            }
+            synchronized (this) {
+                Current current = this.current;
+                String[] names = dir.list();
+                if (names == null) {
+                    return;
+                }
+                for (String name : names) {
+                    // Anything else in the directory, such as a write that never finished, goes too.
+                    long version = parseVersion(name);
+                    if (current == null || version != current.version) {
+                        new File(dir, name).delete();
+                        cache.remove(version);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return  The saved version of the given common properties, saving them if need be
+     */
+    private long version(Map<String, PropertyValue> properties) throws IOException {
+        Current current = this.current;
+        if (current != null && current.properties == properties) {
+            return current.version;
+        }
+        synchronized (this) {
+            current = this.current;
+            if (current != null && current.properties == properties) {
+                return current.version;
+            }
+            long version = nextVersion++;
+            Indicative.writeCommonProperties(new File(dir, Long.toString(version)), properties);
+            cache.put(version, properties);
+            this.current = new Current(properties, version);
+            return version;
+        }
+    }
+
+    private synchronized Map<String, PropertyValue> get(long version) throws IOException {
+        Map<String, PropertyValue> properties = cache.get(version);
+        if (properties == null) {
+            File file = new File(dir, Long.toString(version));
+            if (!file.exists()) {
+                throw new IOException("Common properties version " + version + " is missing");
+            }
+            properties = Indicative.readCommonProperties(file);
+            cache.put(version, properties);
+        }
+        return properties;
+    }
+
+    /**
+     * @return  The version a file name or payload prefix names, or -1 if it names none
+     */
+    private static long parseVersion(String name) {
+        try {
+            return Long.parseLong(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.indicative.client.android;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An event or common property value: a boolean, whole number, decimal number, string, array of
+ * values or object of named values.  Numbers and booleans are held in a primitive field rather
+ * than boxed, the value's type is a tag checked once by a switch, and a value can be written to
+ * disk and read back as it is.
+ */
+public final class PropertyValue {
+
+    /**
+     * The kinds of value a property can hold.
+     */
+    public enum Type {
+        NULL, BOOLEAN, LONG, DOUBLE, STRING, ARRAY, OBJECT
+    }
+
+    public static final PropertyValue NULL = new PropertyValue(Type.NULL, 0, null);
+    public static final PropertyValue TRUE = new PropertyValue(Type.BOOLEAN, 1, null);
+    public static final PropertyValue FALSE = new PropertyValue(Type.BOOLEAN, 0, null);
+
+    // Values of small whole numbers, which are common enough to share.
+    private static final PropertyValue[] SMALL_LONGS = new PropertyValue[256];
+    private static final int SMALL_LONG_MIN = -128;
+
+    static {
+        for (int i = 0; i < SMALL_LONGS.length; i++) {
+            SMALL_LONGS[i] = new PropertyValue(Type.LONG, i + SMALL_LONG_MIN, null);
+        }
+    }
+
+    private final Type type;
+
+    // A boolean (0 or 1), a long, or a double's raw bits.
+    private final long bits;
+
+    // A String, a List<PropertyValue> or a Map<String, PropertyValue>.
+    private final Object reference;
+
+    private PropertyValue(Type type, long bits, Object reference) {
+        this.type = type;
+        this.bits = bits;
+        this.reference = reference;
+    }
+
+    public static PropertyValue of(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static PropertyValue of(long value) {
+        if (value >= SMALL_LONG_MIN && value < SMALL_LONG_MIN + SMALL_LONGS.length) {
+            return SMALL_LONGS[(int) value - SMALL_LONG_MIN];
+        }
+        return new PropertyValue(Type.LONG, value, null);
+    }
+
+    public static PropertyValue of(double value) {
+        return new PropertyValue(Type.DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public static PropertyValue of(String value) {
+        return value == null ? NULL : new PropertyValue(Type.STRING, 0, value);
+    }
+
+    /**
+     * @param values    The array's elements, which are copied
+     */
+    public static PropertyValue array(List<PropertyValue> values) {
+        return new PropertyValue(Type.ARRAY, 0,
+                Collections.unmodifiableList(new ArrayList<PropertyValue>(values)));
+    }
+
+    /**
+     * @param values    The object's members, which are copied
+     */
+    public static PropertyValue object(Map<String, PropertyValue> values) {
+        return new PropertyValue(Type.OBJECT, 0,
+                Collections.unmodifiableMap(new LinkedHashMap<String, PropertyValue>(values)));
+    }
+
+    /**
+     * Converts a plain Java value: Strings, numbers, Booleans, Maps, Collections and arrays
+     * become their typed equivalents, anything else its toString().
+     *
+     * @param value     The value to convert
+     *
+     * @return          The typed value
+     */
+    public static PropertyValue from(Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof PropertyValue) {
+            return (PropertyValue) value;
+        } else if (value instanceof String) {
+            return of((String) value);
+        } else if (value instanceof Boolean) {
+            return of(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return of(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return of(((Number) value).doubleValue());
+        } else if (value instanceof Map) {
+            Map<String, PropertyValue> members = new LinkedHashMap<String, PropertyValue>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                members.put(String.valueOf(entry.getKey()), from(entry.getValue()));
+            }
+            return new PropertyValue(Type.OBJECT, 0, Collections.unmodifiableMap(members));
+        } else if (value instanceof Collection) {
+            List<PropertyValue> elements = new ArrayList<PropertyValue>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                elements.add(from(element));
+            }
+            return new PropertyValue(Type.ARRAY, 0, Collections.unmodifiableList(elements));
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<PropertyValue> elements = new ArrayList<PropertyValue>(length);
+            for (int i = 0; i < length; i++) {
+                elements.add(from(Array.get(value, i)));
+            }
+            return new PropertyValue(Type.ARRAY, 0, Collections.unmodifiableList(elements));
+        } else {
+            return of(value.toString());
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean booleanValue() {
+        return type == Type.BOOLEAN && bits != 0;
+    }
+
+    public long longValue() {
+        return type == Type.DOUBLE ? (long) Double.longBitsToDouble(bits) : bits;
+    }
+
+    public double doubleValue() {
+        return type == Type.DOUBLE ? Double.longBitsToDouble(bits) : bits;
+    }
+
+    /**
+     * @return  The string, or null if this is not a string
+     */
+    public String stringValue() {
+        return type == Type.STRING ? (String) reference : null;
+    }
+
+    /**
+     * @return  The elements, or an empty list if this is not an array
+     */
+    @SuppressWarnings("unchecked")
+    public List<PropertyValue> arrayValue() {
+        return type == Type.ARRAY ? (List<PropertyValue>) reference : Collections.<PropertyValue>emptyList();
+    }
+
+    /**
+     * @return  The members, or an empty map if this is not an object
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, PropertyValue> objectValue() {
+        return type == Type.OBJECT
+                ? (Map<String, PropertyValue>) reference : Collections.<String, PropertyValue>emptyMap();
+    }
+
+    /**
+     * Writes the value as JSON.
+     */
+    void writeJson(PayloadWriter writer) {
+        switch (type) {
+            case BOOLEAN:
+                writer.value(bits != 0);
+                break;
+            case LONG:
+                writer.value(bits);
+                break;
+            case DOUBLE:
+                writer.value(Double.longBitsToDouble(bits));
+                break;
+            case STRING:
+                writer.value((String) reference);
+                break;
+            case ARRAY:
+                writer.beginArray();
+                for (PropertyValue element : arrayValue()) {
+                    element.writeJson(writer);
+                }
+                writer.endArray();
+                break;
+            case OBJECT:
+                writer.beginObject();
+                for (Map.Entry<String, PropertyValue> member : objectValue().entrySet()) {
+                    writer.name(member.getKey());
+                    member.getValue().writeJson(writer);
+                }
+                writer.endObject();
+                break;
+            default:
+                writer.nullValue();
+                break;
+        }
+    }
+
+    /**
+     * Writes the value in a compact binary form that {@link #read} reads back.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        switch (type) {
+            case BOOLEAN:
+                out.writeBoolean(bits != 0);
+                break;
+            case LONG:
+            case DOUBLE:
+                out.writeLong(bits);
+                break;
+            case STRING:
+                writeString(out, (String) reference);
+                break;
+            case ARRAY:
+                List<PropertyValue> elements = arrayValue();
+                out.writeInt(elements.size());
+                for (PropertyValue element : elements) {
+                    element.write(out);
+                }
+                break;
+            case OBJECT:
+                Map<String, PropertyValue> members = objectValue();
+                out.writeInt(members.size());
+                for (Map.Entry<String, PropertyValue> member : members.entrySet()) {
+                    writeString(out, member.getKey());
+                    member.getValue().write(out);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #write}.
+     */
+    static PropertyValue read(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag >= Type.values().length) {
+            throw new IOException("Unknown property type " + tag);
+        }
+        switch (Type.values()[tag]) {
+            case BOOLEAN:
+                return of(in.readBoolean());
+            case LONG:
+                return of(in.readLong());
+            case DOUBLE:
+                return new PropertyValue(Type.DOUBLE, in.readLong(), null);
+            case STRING:
+                return new PropertyValue(Type.STRING, 0, readString(in));
+            case ARRAY:
+                int length = in.readInt();
+                List<PropertyValue> elements = new ArrayList<PropertyValue>(Math.min(length, 1024));
+                for (int i = 0; i < length; i++) {
+                    elements.add(read(in));
+                }
+                return new PropertyValue(Type.ARRAY, 0, Collections.unmodifiableList(elements));
+            case OBJECT:
+                int size = in.readInt();
+                Map<String, PropertyValue> members = new LinkedHashMap<String, PropertyValue>();
+                for (int i = 0; i < size; i++) {
+                    String name = readString(in);
+                    members.put(name, read(in));
+                }
+                return new PropertyValue(Type.OBJECT, 0, Collections.unmodifiableMap(members));
+            default:
+                return NULL;
+        }
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PropertyValue)) {
+            return false;
+        }
+        PropertyValue other = (PropertyValue) o;
+        return type == other.type && bits == other.bits
+                && (reference == null ? other.reference == null : reference.equals(other.reference));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type.hashCode() + (int) (bits ^ (bits >>> 32)))
+                + (reference == null ? 0 : reference.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        PayloadWriter writer = new PayloadWriter();
+        writeJson(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,228 @@
+package com.indicative.client.android;
+
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event store kept in a SharedPreferences file, in the format earlier versions of the SDK used:
+ * each distinct payload is a key, and its value is how many copies are queued.  Records come out
+ * in no particular order, and every change rewrites the whole file, so this is only meant for
+ * apps that need to stay on the old format.
+ */
+final class SharedPreferencesEventStore implements EventStore {
+
+    private final SharedPreferences prefs;
+
+    // Copies of each payload handed out in outstanding batches.
+    private final Map<String, Integer> leased = new HashMap<String, Integer>();
+    private final LinkedList<Batch> batches = new LinkedList<Batch>();
+    private int leasedCount;
+
+    private int count;
+    private long liveBytes;
+
+    /**
+     * @param prefs     The SharedPreferences file holding the queue
+     */
+    SharedPreferencesEventStore(SharedPreferences prefs) {
+        this.prefs = prefs;
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            int copies = copies(entry.getValue());
+            count += copies;
+            liveBytes += (long) PayloadWriter.utf8Length(entry.getKey()) * copies;
+        }
+    }
+
+    @Override
+    public synchronized void append(String payload) throws IOException {
+        append(Collections.singletonList(payload));
+    }
+
+    @Override
+    public synchronized void append(List<String> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        Map<String, Integer> added = new HashMap<String, Integer>();
+        for (String payload : payloads) {
+            Integer copies = added.get(payload);
+            int queued = copies != null ? copies + 1 : prefs.getInt(payload, 0) + 1;
+            added.put(payload, queued);
+            editor.putInt(payload, queued);
+            liveBytes += PayloadWriter.utf8Length(payload);
+        }
+        editor.apply();
+        count += payloads.size();
+    }
+
+    @Override
+    public synchronized Batch peekBatch(int maxRecords, int maxBytes, long expiresAt) {
+        List<String> records = new ArrayList<String>();
+        long bytes = 0;
+
+        entries:
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String payload = entry.getKey();
+            Integer alreadyLeased = leased.get(payload);
+            int copies = copies(entry.getValue()) - (alreadyLeased == null ? 0 : alreadyLeased);
+            int length = PayloadWriter.utf8Length(payload);
+            for (int i = 0; i < copies; i++) {
+                if (records.size() >= maxRecords || (!records.isEmpty() && bytes + length > maxBytes)) {
+                    break entries;
+                }
+                records.add(payload);
+                bytes += length;
+            }
+        }
+
+        Batch batch = new Batch(records, bytes, expiresAt);
+        if (!records.isEmpty()) {
+            for (String payload : records) {
+                Integer copies = leased.get(payload);
+                leased.put(payload, copies == null ? 1 : copies + 1);
+            }
+            leasedCount += records.size();
+            batches.add(batch);
+        }
+        return batch;
+    }
+
+    @Override
+    public synchronized boolean ack(Batch batch) {
+        if (!unlease(batch)) {
+            return false;
+        }
+        Map<String, Integer> sent = new HashMap<String, Integer>();
+        for (String payload : batch.records) {
+            Integer copies = sent.get(payload);
+            sent.put(payload, copies == null ? 1 : copies + 1);
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, Integer> entry : sent.entrySet()) {
+            int remaining = prefs.getInt(entry.getKey(), 0) - entry.getValue();
+            if (remaining > 0) {
+                editor.putInt(entry.getKey(), remaining);
+            } else {
+                editor.remove(entry.getKey());
+            }
+        }
+        editor.apply();
+
+        count = Math.max(0, count - batch.records.size());
+        liveBytes = Math.max(0, liveBytes - batch.bytes);
+        return true;
+    }
+
+    /**
+     * Gives a batch's records up so they are handed out again.  They never left the file, so
+     * nothing is written.
+     */
+    @Override
+    public synchronized boolean release(Batch batch) {
+        return unlease(batch);
+    }
+
+    @Override
+    public synchronized boolean isOutstanding(Batch batch) {
+        return batch.outstanding;
+    }
+
+    @Override
+    public synchronized boolean extend(Batch batch, long expiresAt) {
+        if (!batch.outstanding) {
+            return false;
+        }
+        batch.expiresAt = Math.max(batch.expiresAt, expiresAt);
+        return true;
+    }
+
+    @Override
+    public synchronized int releaseExpired(long now) {
+        List<Batch> expired = new ArrayList<Batch>();
+        for (Batch batch : batches) {
+            if (batch.expiresAt <= now) {
+                expired.add(batch);
+            }
+        }
+        for (Batch batch : expired) {
+            release(batch);
+        }
+        return expired.size();
+    }
+
+    @Override
+    public synchronized Batch take(int maxRecords, int maxBytes) {
+        Batch batch = peekBatch(maxRecords, maxBytes, Long.MAX_VALUE);
+        ack(batch);
+        return batch;
+    }
+
+    @Override
+    public synchronized int skip(int maxRecords) {
+        return take(maxRecords, Integer.MAX_VALUE).records.size();
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count - leasedCount;
+    }
+
+    @Override
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public long maxBytes() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasRoom(int payloadBytes) {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private boolean unlease(Batch batch) {
+        if (!batch.outstanding) {
+            return false;
+        }
+        batch.outstanding = false;
+        batches.remove(batch);
+        for (String payload : batch.records) {
+            Integer copies = leased.get(payload);
+            if (copies == null || copies <= 1) {
+                leased.remove(payload);
+            } else {
+                leased.put(payload, copies - 1);
+            }
+        }
+        leasedCount -= batch.records.size();
+        return true;
+    }
+
+    private static int copies(Object value) {
+        return value instanceof Integer ? (Integer) value : 1;
+    }
+}
@@ -0,0 +1,330 @@
+package com.indicative.client.android;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Event store backed by a SQLite table, one row per record.  Rows are numbered in insertion
+ * order, so a batch is always a contiguous range of row ids and acknowledging it is a single
+ * ranged delete.  The database runs in write-ahead-log mode where available, and inserts go
+ * through one precompiled statement, a window of them to a transaction.
+ */
+final class SqliteEventStore implements EventStore {
+
+    private static final int DATABASE_VERSION = 1;
+
+    private final File file;
+    private final SQLiteOpenHelper helper;
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insert;
+    private final SQLiteStatement deleteRange;
+
+    // Every row up to this id has been handed out in a batch.
+    private long leasedThrough;
+
+    // Outstanding batches, oldest first.
+    private final LinkedList<Lease> leases = new LinkedList<Lease>();
+    private int leasedCount;
+
+    private int count;
+    private long liveBytes;
+
+    /**
+     * The row ids a batch spans.
+     */
+    private static final class Lease extends Batch {
+        final long firstId;
+        final long lastId;
+
+        Lease(List<String> records, long bytes, long expiresAt, long firstId, long lastId) {
+            super(records, bytes, expiresAt);
+            this.firstId = firstId;
+            this.lastId = lastId;
+        }
+    }
+
+    /**
+     * Opens the store in the app's databases directory, creating it if needed.
+     *
+     * @param context   The app context
+     * @param name      The database's file name
+     */
+    SqliteEventStore(Context context, String name) throws IOException {
+        this.file = context.getDatabasePath(name);
+        this.helper = new SQLiteOpenHelper(context, name, null, DATABASE_VERSION) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE events (id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "payload TEXT NOT NULL, bytes INTEGER NOT NULL)");
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+
+        try {
+            db = helper.getWritableDatabase();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                db.enableWriteAheadLogging();
+            }
+            insert = db.compileStatement("INSERT INTO events (payload, bytes) VALUES (?, ?)");
+            deleteRange = db.compileStatement("DELETE FROM events WHERE id BETWEEN ? AND ?");
+
+            Cursor totals = db.rawQuery("SELECT COUNT(*), IFNULL(SUM(bytes), 0) FROM events", null);
+            try {
+                if (totals.moveToFirst()) {
+                    count = totals.getInt(0);
+                    liveBytes = totals.getLong(1);
+                }
+            } finally {
+                totals.close();
+            }
+        } catch (RuntimeException e) {
+            helper.close();
+            throw new IOException("Could not open event database " + name, e);
+        }
+    }
+
+    @Override
+    public synchronized void append(String payload) throws IOException {
+        append(Collections.singletonList(payload));
+    }
+
+    /**
+     * Inserts the payloads through the precompiled statement in one transaction, so a window of
+     * events costs one commit rather than one per event.
+     */
+    @Override
+    public synchronized void append(List<String> payloads) throws IOException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        long bytes = 0;
+        try {
+            db.beginTransaction();
+            try {
+                for (String payload : payloads) {
+                    int length = PayloadWriter.utf8Length(payload);
+                    insert.bindString(1, payload);
+                    insert.bindLong(2, length);
+                    insert.executeInsert();
+                    bytes += length;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                insert.clearBindings();
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Could not insert events", e);
+        }
+        count += payloads.size();
+        liveBytes += bytes;
+    }
+
+    @Override
+    public synchronized Batch peekBatch(int maxRecords, int maxBytes, long expiresAt) throws IOException {
+        return lease(maxRecords, maxBytes, expiresAt, true);
+    }
+
+    @Override
+    public synchronized boolean ack(Batch batch) throws IOException {
+        Lease lease = (Lease) batch;
+        if (!lease.outstanding) {
+            return false;
+        }
+        try {
+            delete(lease);
+        } catch (RuntimeException e) {
+            throw new IOException("Could not delete sent events", e);
+        }
+        finish(lease);
+        return true;
+    }
+
+    /**
+     * Gives a batch's records up so they are handed out again.  They are inserted again as new
+     * rows and the old rows deleted in one transaction.
+     */
+    @Override
+    public synchronized boolean release(Batch batch) throws IOException {
+        Lease lease = (Lease) batch;
+        if (!lease.outstanding) {
+            return false;
+        }
+        try {
+            db.beginTransaction();
+            try {
+                for (String record : lease.records) {
+                    insert.bindString(1, record);
+                    insert.bindLong(2, PayloadWriter.utf8Length(record));
+                    insert.executeInsert();
+                }
+                delete(lease);
+                db.setTransactionSuccessful();
+            } finally {
+                insert.clearBindings();
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Could not release events", e);
+        }
+        // The rows are back, under new ids past everything handed out so far.
+        leasedCount -= lease.records.size();
+        lease.outstanding = false;
+        leases.remove(lease);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isOutstanding(Batch batch) {
+        return batch.outstanding;
+    }
+
+    @Override
+    public synchronized boolean extend(Batch batch, long expiresAt) {
+        if (!batch.outstanding) {
+            return false;
+        }
+        batch.expiresAt = Math.max(batch.expiresAt, expiresAt);
+        return true;
+    }
+
+    @Override
+    public synchronized int releaseExpired(long now) throws IOException {
+        List<Lease> expired = new ArrayList<Lease>();
+        for (Lease lease : leases) {
+            if (lease.expiresAt <= now) {
+                expired.add(lease);
+            }
+        }
+        for (Lease lease : expired) {
+            release(lease);
+        }
+        return expired.size();
+    }
+
+    @Override
+    public synchronized Batch take(int maxRecords, int maxBytes) throws IOException {
+        Batch batch = lease(maxRecords, maxBytes, Long.MAX_VALUE, true);
+        ack(batch);
+        return batch;
+    }
+
+    @Override
+    public synchronized int skip(int maxRecords) throws IOException {
+        Batch batch = lease(maxRecords, Integer.MAX_VALUE, Long.MAX_VALUE, false);
+        ack(batch);
+        return batch.records.size();
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count - leasedCount;
+    }
+
+    @Override
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long sizeBytes() {
+        return file.length() + new File(file.getPath() + "-wal").length();
+    }
+
+    @Override
+    public long maxBytes() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean hasRoom(int payloadBytes) {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        insert.close();
+        deleteRange.close();
+        helper.close();
+    }
+
+    /**
+     * Reads the next rows not yet handed out and marks them as handed out.
+     *
+     * @param payloads  Whether to read payloads, or only row ids and sizes (returning nulls)
+     */
+    private Lease lease(int maxRecords, int maxBytes, long expiresAt, boolean payloads) throws IOException {
+        List<String> records = new ArrayList<String>();
+        long firstId = -1;
+        long lastId = -1;
+        long bytes = 0;
+
+        try {
+            Cursor rows = db.rawQuery(
+                    (payloads ? "SELECT id, bytes, payload" : "SELECT id, bytes")
+                            + " FROM events WHERE id > ? ORDER BY id LIMIT ?",
+                    new String[] { Long.toString(leasedThrough), Integer.toString(maxRecords) });
+            try {
+                while (rows.moveToNext()) {
+                    int length = rows.getInt(1);
+                    if (!records.isEmpty() && bytes + length > maxBytes) {
+                        break;
+                    }
+                    long id = rows.getLong(0);
+                    if (firstId < 0) {
+                        firstId = id;
+                    }
+                    lastId = id;
+                    records.add(payloads ? rows.getString(2) : null);
+                    bytes += length;
+                }
+            } finally {
+                rows.close();
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Could not read queued events", e);
+        }
+
+        Lease lease = new Lease(records, bytes, expiresAt, firstId, lastId);
+        if (!records.isEmpty()) {
+            leasedThrough = lastId;
+            leasedCount += records.size();
+            leases.add(lease);
+        }
+        return lease;
+    }
+
+    private void delete(Lease lease) {
+        deleteRange.bindLong(1, lease.firstId);
+        deleteRange.bindLong(2, lease.lastId);
+        deleteRange.execute();
+        deleteRange.clearBindings();
+    }
+
+    private void finish(Lease lease) {
+        lease.outstanding = false;
+        leases.remove(lease);
+        leasedCount -= lease.records.size();
+        count = Math.max(0, count - lease.records.size());
+        liveBytes = Math.max(0, liveBytes - lease.bytes);
+    }
+}
@@ -0,0 +1,65 @@
+package com.indicative.client.android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of counters that many threads can bump at once without contending.  Each
+ * counter is split into stripes and a thread only ever adds to the stripe its id maps to; a
+ * counter's value is the sum of its stripes.  Stripes are padded so threads on different
+ * stripes never share a cache line.
+ */
+final class StripedCounters {
+
+    // Longs per 64-byte cache line.
+    private static final int LINE = 8;
+
+    private final AtomicLongArray cells;
+    private final int counters;
+    private final int rowLength;
+    private final int stripeMask;
+
+    /**
+     * @param counters  The number of counters
+     */
+    StripedCounters(int counters) {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) {
+            stripes <<= 1;
+        }
+        this.counters = counters;
+        // Round each stripe's row up to whole cache lines, plus one line of padding.
+        this.rowLength = ((counters + LINE - 1) / LINE + 1) * LINE;
+        this.stripeMask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * rowLength);
+    }
+
+    /**
+     * Adds to a counter, from any thread.
+     *
+     * @param counter   The counter's index
+     * @param delta     The amount to add
+     */
+    void add(int counter, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        cells.getAndAdd(stripe * rowLength + counter, delta);
+    }
+
+    void increment(int counter) {
+        add(counter, 1);
+    }
+
+    /**
+     * @return  The counter's value; only a snapshot while other threads are adding to it
+     */
+    long sum(int counter) {
+        long sum = 0;
+        for (int row = 0; row < cells.length(); row += rowLength) {
+            sum += cells.get(row + counter);
+        }
+        return sum;
+    }
+
+    int size() {
+        return counters;
+    }
+}
@@ -0,0 +1,82 @@
+package com.indicative.client.android;
+
+import java.util.Random;
+
+/**
+ * Decides when failed uploads are retried.  Each batch counts its own failed attempts and,
+ * after a failure, waits an exponentially growing, fully jittered delay before it is retried,
+ * so that clients hitting the same outage spread their retries out instead of retrying in
+ * lockstep.  A batch that keeps failing is given up on after a fixed number of attempts.
+ *
+ * A server-provided Retry-After is honored when it asks for a longer wait, and since it speaks
+ * for the server as a whole, it also holds back every other upload until it has passed.
+ *
+ * Times are uptimes in milliseconds, as the caller passes them in.
+ */
+final class UploadBackoff {
+
+    static final long BASE_DELAY_MS = 5 * 1000;
+    static final long MAX_DELAY_MS = 30 * 60 * 1000;
+    static final int MAX_ATTEMPTS = 10;
+
+    private final Random random;
+
+    // Time before which no upload should be attempted, per the server.  Read without locking.
+    private volatile long pausedUntil;
+
+    UploadBackoff() {
+        this(new Random());
+    }
+
+    /**
+     * @param random    The source of the jitter
+     */
+    UploadBackoff(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * @return  true if uploads may be attempted now
+     */
+    boolean canAttempt(long now) {
+        return now >= pausedUntil;
+    }
+
+    /**
+     * @return  How long until uploads may be attempted again, or 0 if they may be attempted now
+     */
+    long remainingDelayMs(long now) {
+        return Math.max(0, pausedUntil - now);
+    }
+
+    /**
+     * Records that the server took an upload, lifting any pause it asked for.
+     */
+    void onSuccess() {
+        pausedUntil = 0;
+    }
+
+    /**
+     * Records a batch's failed upload and decides when to retry it.
+     *
+     * @param attempts      The batch's failed attempts so far, this one included
+     * @param retryAfterMs  The delay the server asked for, or a negative value if it gave none
+     * @param now           The current time
+     *
+     * @return              How long to wait before retrying the batch, or -1 to give up on it
+     */
+    synchronized long onFailure(int attempts, long retryAfterMs, long now) {
+        if (attempts >= MAX_ATTEMPTS) {
+            return -1;
+        }
+
+        // Full jitter: anywhere between no wait and the exponential ceiling for this attempt.
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(Math.max(attempts - 1, 0), 20));
+        long delay = (long) (random.nextDouble() * ceiling);
+        if (retryAfterMs >= 0) {
+            delay = Math.max(delay, Math.min(retryAfterMs, MAX_DELAY_MS));
+            pausedUntil = Math.max(pausedUntil, now + delay);
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,135 @@
+package com.indicative.client.android;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An upload request body kept as ranges of the queued payload strings it is made of, so the
+ * body is never assembled into one string or byte array.  Its UTF-8 length is counted up front
+ * for a fixed-length request, and it is encoded straight into the connection's output stream
+ * through a buffer of fixed size.
+ */
+final class UploadBody {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    // Part i is strings[i] from starts[i] up to ends[i].
+    private String[] strings = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int parts;
+
+    UploadBody append(String s) {
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Adds part of a string to the body without copying it.  Each part is encoded on its own,
+     * so it should not start or end in the middle of a surrogate pair.
+     *
+     * @param s         The string
+     * @param start     The index of the first char to add
+     * @param end       The index after the last char to add
+     */
+    UploadBody append(String s, int start, int end) {
+        if (parts == strings.length) {
+            String[] grownStrings = new String[parts * 2];
+            int[] grownStarts = new int[parts * 2];
+            int[] grownEnds = new int[parts * 2];
+            System.arraycopy(strings, 0, grownStrings, 0, parts);
+            System.arraycopy(starts, 0, grownStarts, 0, parts);
+            System.arraycopy(ends, 0, grownEnds, 0, parts);
+            strings = grownStrings;
+            starts = grownStarts;
+            ends = grownEnds;
+        }
+        strings[parts] = s;
+        starts[parts] = start;
+        ends[parts] = end;
+        parts++;
+        return this;
+    }
+
+    /**
+     * @return  The number of bytes writeTo() writes
+     */
+    long utf8Length() {
+        long length = 0;
+        for (int part = 0; part < parts; part++) {
+            String s = strings[part];
+            int end = ends[part];
+            for (int i = starts[part]; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // Unpaired surrogates are written as '?', like String.getBytes() does.
+                    length += 1;
+                } else {
+                    length += 3;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the body as UTF-8.  Does not flush or close the stream.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int pos = 0;
+        for (int part = 0; part < parts; part++) {
+            String s = strings[part];
+            int end = ends[part];
+            for (int i = starts[part]; i < end; i++) {
+                // Room for the longest sequence a char (pair) encodes to.
+                if (pos > BUFFER_SIZE - 4) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    buffer[pos++] = '?';
+                } else {
+                    buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                    buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+        }
+    }
+
+    /**
+     * @return  The whole body as one string, for debug logging
+     */
+    @Override
+    public String toString() {
+        StringBuilder body = new StringBuilder();
+        for (int part = 0; part < parts; part++) {
+            body.append(strings[part], starts[part], ends[part]);
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.indicative.client.android;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Posts upload request bodies over HttpURLConnection.  A body at least as large as the gzip
+ * threshold is compressed on its way out, in chunked mode since its compressed length is not
+ * known up front; any other body is sent with a fixed length.  The response is always read to
+ * the end, so the connection can go back to the keep-alive pool.
+ */
+final class UploadClient {
+
+    /**
+     * What came back from a request.
+     */
+    static final class Response {
+        final int statusCode;
+        final long retryAfterMs;
+        final long latencyMs;
+        final String body;
+
+        /**
+         * @param statusCode    The response's status code
+         * @param retryAfterMs  The delay asked for in a Retry-After header, or -1 if none
+         * @param latencyMs     Milliseconds from opening the connection to reading the status
+         * @param body          The response body, if it was asked for, or null
+         */
+        Response(int statusCode, long retryAfterMs, long latencyMs, String body) {
+            this.statusCode = statusCode;
+            this.retryAfterMs = retryAfterMs;
+            this.latencyMs = latencyMs;
+            this.body = body;
+        }
+    }
+
+    private UploadClient() {
+    }
+
+    /**
+     * Posts a request body and reads the response.
+     *
+     * @param endpoint              The URL to post to
+     * @param body                  The request body
+     * @param gzipThresholdBytes    Bodies at least this large are gzipped; negative disables
+     *                              compression
+     * @param batchEncoding         The BatchCodec encoding the body is in, or null if it is plain
+     * @param readBody              Whether to return the response body, for debug logging
+     *
+     * @return                      The response
+     */
+    static Response post(String endpoint, UploadBody body, int gzipThresholdBytes, String batchEncoding,
+                         boolean readBody) throws IOException {
+        long length = body.utf8Length();
+        boolean gzipped = gzipThresholdBytes >= 0 && length >= gzipThresholdBytes;
+        long start = System.nanoTime();
+
+        HttpURLConnection con = (HttpURLConnection) new URL(endpoint).openConnection();
+        con.setRequestMethod("POST");
+        con.setRequestProperty("Accept-Charset", "UTF-8");
+        con.addRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        if (gzipped) {
+            con.setRequestProperty("Content-Encoding", "gzip");
+        }
+        if (batchEncoding != null) {
+            con.setRequestProperty(BatchCodec.HEADER, batchEncoding);
+        }
+        con.addRequestProperty("Indicative-Client", "Android");
+        con.setRequestProperty("Connection", "keep-alive");
+        if (gzipped) {
+            con.setChunkedStreamingMode(0);
+        } else {
+            con.setRequestProperty("Content-Length", Long.toString(length));
+            con.setFixedLengthStreamingMode((int) length);
+        }
+
+        // Send post request
+        con.setDoOutput(true);
+        con.setDoInput(true);
+        con.setInstanceFollowRedirects(false);
+        con.setUseCaches(false);
+
+        OutputStream out = con.getOutputStream();
+        if (gzipped) {
+            out = new GZIPOutputStream(out, UploadBody.BUFFER_SIZE);
+        }
+        try {
+            body.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        int statusCode = con.getResponseCode();
+        long latencyMs = (System.nanoTime() - start) / 1000000;
+
+        // The connection only goes back to the keep-alive pool once the response has been read
+        // to the end and closed.
+        InputStream response = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? con.getErrorStream() : con.getInputStream();
+        String responseBody = drainAndClose(response, readBody);
+
+        return new Response(statusCode, parseRetryAfter(con), latencyMs, responseBody);
+    }
+
+    /**
+     * Network failures, timeouts, throttling and server errors are retried; other responses
+     * mean the server has dealt with the payload one way or another.
+     *
+     * @param statusCode    The response's status code, or 0 if no response was received
+     */
+    static boolean isRetriable(int statusCode) {
+        return statusCode == 0 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Reads the Retry-After header, given either in seconds or as an HTTP date.
+     *
+     * @return      The delay the server asked for in milliseconds, or -1 if none
+     */
+    private static long parseRetryAfter(HttpURLConnection con) {
+        String retryAfter = con.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            long date = con.getHeaderFieldDate("Retry-After", -1);
+            return date < 0 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Reads whatever is left of a response and closes it, so the connection can be reused.
+     *
+     * @param is        The response stream, or null
+     * @param keep      Whether to return what was read
+     *
+     * @return          The response body as UTF-8 text if it was kept, or null
+     */
+    private static String drainAndClose(InputStream is, boolean keep) {
+        if (is == null) {
+            return null;
+        }
+        ByteArrayOutputStream kept = keep ? new ByteArrayOutputStream() : null;
+        byte[] buffer = new byte[1024];
+        try {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                if (kept != null) {
+                    kept.write(buffer, 0, read);
+                }
+            }
+        } catch (IOException e) {
+            // The connection will not be reused; nothing else to do.
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+        try {
+            return kept == null ? null : kept.toString("UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
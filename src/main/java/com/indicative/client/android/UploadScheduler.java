@@ -0,0 +1,272 @@
+package com.indicative.client.android;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+/**
+ * Decides whether a flush should go out now, given the device's network and power state, and
+ * if not arranges to be woken once it should.  On Lollipop and later the wake-up is a persisted
+ * JobScheduler job, which also brings the process back if it has died in the meantime; earlier
+ * releases listen for connectivity and power broadcasts while the process is alive.
+ *
+ * A flush waits for any network.  A large backlog also waits for an unmetered network or for
+ * the device to be charging, but no longer than MAX_UNMETERED_WAIT_MS.
+ */
+final class UploadScheduler {
+
+    static final int JOB_ID_NETWORK = 0x1d1c0001;
+    static final int JOB_ID_UNMETERED = 0x1d1c0002;
+    static final int JOB_ID_CHARGING = 0x1d1c0003;
+
+    static final String EXTRA_DEFERRED_SINCE = "deferredSince";
+
+    static final long MAX_UNMETERED_WAIT_MS = 6 * 60 * 60 * 1000L;
+
+    private final Context context;
+    private final Runnable onConditionsMet;
+
+    // What flushes are waiting for, if anything.
+    private boolean waitingForNetwork;
+    private boolean waitingForUnmetered;
+
+    // Wall-clock time a large backlog started waiting for an unmetered network, or 0.
+    private long deferredSince;
+
+    private BroadcastReceiver receiver;
+
+    /**
+     * @param context           The app context
+     * @param onConditionsMet   Run once a flush that was held back can go out
+     */
+    UploadScheduler(Context context, Runnable onConditionsMet) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.onConditionsMet = onConditionsMet;
+    }
+
+    /**
+     * Checks whether queued events should be sent now, and arranges to be woken if not.
+     *
+     * @param backlog       The number of events waiting to be sent
+     * @param largeBacklog  A backlog at least this large waits for an unmetered network or
+     *                      charging; 0 or less never waits for them
+     *
+     * @return              true if the flush should go ahead
+     */
+    synchronized boolean shouldFlushNow(int backlog, int largeBacklog) {
+        NetworkInfo network;
+        try {
+            network = activeNetwork();
+        } catch (SecurityException e) {
+            // Without ACCESS_NETWORK_STATE there is no telling; let the upload find out.
+            return true;
+        }
+        if (network == null || !network.isConnected()) {
+            waitFor(false);
+            return false;
+        }
+
+        if (largeBacklog > 0 && backlog >= largeBacklog && isMetered(network) && !isCharging()) {
+            long now = System.currentTimeMillis();
+            if (deferredSince == 0 || deferredSince > now) {
+                deferredSince = now;
+            }
+            if (now - deferredSince < MAX_UNMETERED_WAIT_MS) {
+                waitFor(true);
+                return false;
+            }
+        }
+
+        deferredSince = 0;
+        stopWaiting();
+        return true;
+    }
+
+    /**
+     * @return  true while flushes are held back waiting for the network or power state to change
+     */
+    synchronized boolean isWaiting() {
+        return waitingForNetwork || waitingForUnmetered;
+    }
+
+    /**
+     * Picks up a large backlog's wait from a job that outlived the process that scheduled it.
+     *
+     * @param since     Wall-clock time the backlog started waiting
+     */
+    synchronized void restoreDeferral(long since) {
+        if (since > 0 && (deferredSince == 0 || since < deferredSince)) {
+            deferredSince = since;
+        }
+    }
+
+    /**
+     * Called when a broadcast says conditions may have changed.
+     */
+    void onWakeUp() {
+        synchronized (this) {
+            waitingForNetwork = false;
+            waitingForUnmetered = false;
+        }
+        onConditionsMet.run();
+    }
+
+    /**
+     * Called when one of the scheduled jobs starts.  Flushes stop waiting, and the other jobs
+     * scheduled for the same wait are cancelled, since this one does their work.
+     *
+     * @param jobId     The ID of the job that started
+     */
+    synchronized void onJobStarted(int jobId) {
+        waitingForNetwork = false;
+        waitingForUnmetered = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            cancelJobs(jobId);
+        }
+    }
+
+    private void waitFor(boolean unmetered) {
+        if (unmetered ? waitingForUnmetered : waitingForNetwork) {
+            return;
+        }
+        stopWaiting();
+        waitingForNetwork = !unmetered;
+        waitingForUnmetered = unmetered;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                scheduleJobs(unmetered);
+                return;
+            } catch (RuntimeException e) {
+                Log.v("Indicative", "Could not schedule upload job; waiting for broadcasts instead", e);
+            }
+        }
+        registerReceiver();
+    }
+
+    private void stopWaiting() {
+        boolean wasWaiting = waitingForNetwork || waitingForUnmetered;
+        waitingForNetwork = false;
+        waitingForUnmetered = false;
+        if (wasWaiting && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            cancelJobs(0);
+        }
+        if (receiver != null) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (RuntimeException e) {
+                // Already unregistered.
+            }
+            receiver = null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleJobs(boolean unmetered) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        ComponentName service = new ComponentName(context, IndicativeJobService.class);
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(EXTRA_DEFERRED_SINCE, deferredSince);
+
+        if (!unmetered) {
+            scheduler.schedule(new JobInfo.Builder(JOB_ID_NETWORK, service)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPersisted(true)
+                    .setExtras(extras)
+                    .build());
+            return;
+        }
+
+        // Either an unmetered network or charging will do.  The third job, on any network once
+        // the wait is up, makes sure the backlog goes out eventually even if neither happens.
+        long deadline = Math.max(0, deferredSince + MAX_UNMETERED_WAIT_MS - System.currentTimeMillis());
+        scheduler.schedule(new JobInfo.Builder(JOB_ID_UNMETERED, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build());
+        scheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build());
+        scheduler.schedule(new JobInfo.Builder(JOB_ID_NETWORK, service)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(deadline)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build());
+    }
+
+    /**
+     * @param runningJobId  A job that is running and should be left to finish, or 0
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void cancelJobs(int runningJobId) {
+        try {
+            JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            for (int jobId : new int[] { JOB_ID_NETWORK, JOB_ID_UNMETERED, JOB_ID_CHARGING }) {
+                if (jobId != runningJobId) {
+                    scheduler.cancel(jobId);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.v("Indicative", "Could not cancel upload jobs", e);
+        }
+    }
+
+    private void registerReceiver() {
+        IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // Registering delivers the last connectivity broadcast straight away.
+                if (!isInitialStickyBroadcast()) {
+                    onWakeUp();
+                }
+            }
+        };
+        try {
+            context.registerReceiver(receiver, filter);
+        } catch (RuntimeException e) {
+            Log.v("Indicative", "Could not listen for connectivity changes", e);
+            receiver = null;
+        }
+    }
+
+    /**
+     * @return  The active network, or null if there is none
+     */
+    private NetworkInfo activeNetwork() {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivity == null ? null : connectivity.getActiveNetworkInfo();
+    }
+
+    private boolean isMetered(NetworkInfo network) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            ConnectivityManager connectivity =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return connectivity.isActiveNetworkMetered();
+        }
+        return network.getType() == ConnectivityManager.TYPE_MOBILE;
+    }
+
+    private boolean isCharging() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -0,0 +1,120 @@
+package com.indicative.client.android;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Encodes batches and decodes them again, checking that every event comes back as it was
+ * queued.
+ */
+public class BatchCodecTest {
+
+    private static final String API_KEY = "key";
+
+    @Test
+    public void eventsWithoutProperties() throws Exception {
+        List<String> batch = roundTrip(
+                event("open", "user-1", 1, "k1", null),
+                event("close", "user-2", 2, "k2", null),
+                event("open", null, 3, "k3", null));
+
+        Map<String, PropertyValue> encoded = PayloadReader.parse(BatchCodec.encode(API_KEY, batch)).objectValue();
+        assertFalse(encoded.containsKey("properties"));
+        assertFalse(encoded.containsKey("eventUniqueId"));
+    }
+
+    @Test
+    public void eventsSharingEveryProperty() throws Exception {
+        String properties = "{\"appVersion\":\"2.1\",\"price\":9.99,\"tags\":[\"a\",\"b\"],\"beta\":true}";
+        List<String> batch = roundTrip(
+                event("purchase", "user-1", 1, "k1", properties),
+                event("purchase", "user-1", 2, "k2", properties),
+                event("refund", "user-1", 3, "k3", properties));
+
+        Map<String, PropertyValue> encoded = PayloadReader.parse(BatchCodec.encode(API_KEY, batch)).objectValue();
+        assertEquals(PayloadReader.parse(properties), encoded.get("properties"));
+        assertEquals(PropertyValue.of("user-1"), encoded.get("eventUniqueId"));
+        for (PropertyValue event : encoded.get("events").arrayValue()) {
+            assertTrue(event.objectValue().get("p").arrayValue().isEmpty());
+        }
+    }
+
+    @Test
+    public void eventsWithSomePropertiesInCommon() throws Exception {
+        roundTrip(
+                event("view", "user-1", 1, "k1", "{\"screen\":\"home\",\"count\":1,\"ratio\":1.5}"),
+                event("view", "user-2", 2, "k2", "{\"screen\":\"home\",\"count\":\"1\",\"extra\":null}"),
+                event("tap", "user-1", 3, "k3", "{\"screen\":\"home\",\"nested\":{\"a\":[1,2]}}"));
+    }
+
+    @Test
+    public void eventsWithAndWithoutProperties() throws Exception {
+        roundTrip(
+                event("view", "user-1", 1, "k1", "{\"screen\":\"home\"}"),
+                event("view", "user-1", 2, "k2", null),
+                event("view", "user-1", 3, "k3", "{}"));
+    }
+
+    @Test
+    public void aSingleEventKeepsItsOwnProperties() throws Exception {
+        roundTrip(event("view", "user-1", 1, "k1", "{\"screen\":\"home\"}"));
+    }
+
+    @Test
+    public void anotherApiKeyIsKeptWithItsEvent() throws Exception {
+        roundTrip(
+                event("view", "user-1", 1, "k1", null),
+                "{\"apiKey\":\"other\",\"eventName\":\"view\",\"eventTime\":2,\"idempotencyKey\":\"k2\"}");
+    }
+
+    @Test
+    public void rejectsBadIndexes() throws Exception {
+        try {
+            BatchCodec.decode("{\"apiKey\":\"key\",\"encoding\":\"dict-v1\",\"events\":[{\"n\":3}],\"values\":[\"a\"]}");
+            fail("Decoded an index past the dictionary");
+        } catch (IOException expected) {
+            // The index is out of range.
+        }
+    }
+
+    /**
+     * Encodes the payloads as one batch and checks the decoded events against them.
+     *
+     * @return  The payloads
+     */
+    private static List<String> roundTrip(String... payloads) throws IOException {
+        List<String> batch = Arrays.asList(payloads);
+        List<PropertyValue> decoded = BatchCodec.decode(BatchCodec.encode(API_KEY, batch));
+
+        List<PropertyValue> expected = new ArrayList<PropertyValue>();
+        for (String payload : payloads) {
+            expected.add(PayloadReader.parse(payload));
+        }
+        assertEquals(expected, decoded);
+        return batch;
+    }
+
+    private static String event(String name, String uniqueId, long time, String key, String properties) {
+        StringBuilder json = new StringBuilder("{\"apiKey\":\"").append(API_KEY)
+                .append("\",\"eventName\":\"").append(name)
+                .append("\",\"eventTime\":").append(time)
+                .append(",\"idempotencyKey\":\"").append(key).append('"');
+        if (uniqueId != null) {
+            json.append(",\"eventUniqueId\":\"").append(uniqueId).append('"');
+        }
+        if (properties != null) {
+            json.append(",\"properties\":").append(properties);
+        }
+        return json.append('}').toString();
+    }
+}
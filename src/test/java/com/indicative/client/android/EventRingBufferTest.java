@@ -0,0 +1,107 @@
+package com.indicative.client.android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ring buffer's single-threaded behavior, then has several producers race a
+ * consumer through a small buffer that keeps wrapping and filling up.
+ */
+public class EventRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 200000;
+
+    @Test
+    public void rejectsOffersWhenFull() {
+        // Rounded up to 4.
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(3);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void concurrentProducersLoseAndDuplicateNothing() throws Exception {
+        final EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < PER_PRODUCER; i++) {
+                            Integer value = producer * PER_PRODUCER + i;
+                            while (!buffer.offer(value)) {
+                                Thread.yield();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        BitSet seen = new BitSet(PRODUCERS * PER_PRODUCER);
+        int[] lastFromProducer = new int[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            lastFromProducer[p] = -1;
+        }
+
+        start.countDown();
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 60 * 1000;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            Integer value = buffer.poll();
+            if (value == null) {
+                assertTrue("Timed out after " + received + " elements", System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+            assertFalse("Received " + value + " twice", seen.get(value));
+            seen.set(value);
+
+            // Each producer's elements come out in the order it offered them.
+            int producer = value / PER_PRODUCER;
+            int index = value % PER_PRODUCER;
+            assertTrue(index > lastFromProducer[producer]);
+            lastFromProducer[producer] = index;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(failure.get());
+        assertEquals(PRODUCERS * PER_PRODUCER, seen.cardinality());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,233 @@
+package com.indicative.client.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the EventStore contract against the backends that need no Android framework, with the
+ * SharedPreferences backend over an in-memory map.
+ */
+@RunWith(Parameterized.class)
+public class EventStoreTest {
+
+    private static final int RING_BYTES = 64 * 1024;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        return Arrays.asList(new Object[][] { { "journal" }, { "ring" }, { "prefs" } });
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final String backend;
+    private final InMemoryPreferences prefs = new InMemoryPreferences();
+    private EventStore store;
+
+    public EventStoreTest(String backend) {
+        this.backend = backend;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void extendingALeaseKeepsItFromExpiring() throws Exception {
+        store.append("a");
+        store.append("b");
+        EventStore.Batch batch = store.peekBatch(10, Integer.MAX_VALUE, 100);
+
+        assertTrue(store.extend(batch, 500));
+        // An earlier expiry does not bring it forward again.
+        assertTrue(store.extend(batch, 200));
+        assertEquals(0, store.releaseExpired(499));
+        assertTrue(store.isOutstanding(batch));
+        assertEquals(0, store.available());
+
+        assertEquals(1, store.releaseExpired(500));
+        assertFalse(store.isOutstanding(batch));
+        assertFalse(store.extend(batch, 1000));
+        assertEquals(2, store.available());
+    }
+
+    @Test
+    public void liveBytesCountsPayloadsOnly() throws Exception {
+        // Six bytes of UTF-8 each.
+        store.append("h\u00e9llo");
+        store.append("h\u00e9llo");
+        store.append("ab");
+        assertEquals(14, store.liveBytes());
+
+        store.close();
+        store = open();
+        assertEquals(14, store.liveBytes());
+
+        EventStore.Batch batch = store.peekBatch(10, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(3, batch.records.size());
+        assertEquals(14, batch.bytes);
+        assertTrue(store.ack(batch));
+        assertEquals(0, store.liveBytes());
+    }
+
+    @Test
+    public void onlyAFixedSizeStoreRunsOutOfRoom() throws Exception {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String payload = new String(chars);
+
+        int appended = 0;
+        while (appended < 200 && store.hasRoom(payload.length())) {
+            store.append(payload);
+            appended++;
+        }
+        if (!backend.equals("ring")) {
+            assertEquals(200, appended);
+            return;
+        }
+
+        assertTrue(appended < 200);
+        try {
+            store.append(payload);
+            fail("Appended to a full ring");
+        } catch (IOException expected) {
+            // Nothing was written.
+        }
+        assertEquals(appended, store.count());
+
+        assertEquals(1, store.skip(1));
+        assertTrue(store.hasRoom(payload.length()));
+    }
+
+    @Test
+    public void appendsAWindowInOrderOrNotAtAll() throws Exception {
+        store.append("first");
+        store.append(Arrays.asList("a", "b", "a"));
+        assertEquals(4, store.count());
+        assertEquals(8, store.liveBytes());
+
+        char[] chars = new char[RING_BYTES / 40];
+        Arrays.fill(chars, 'x');
+        List<String> large = Collections.nCopies(50, new String(chars));
+        if (backend.equals("ring")) {
+            try {
+                store.append(large);
+                fail("Appended more than the ring holds");
+            } catch (IOException expected) {
+                // Nothing was written.
+            }
+            assertEquals(4, store.count());
+        } else {
+            store.append(large);
+            assertEquals(54, store.count());
+        }
+
+        store.close();
+        store = open();
+        EventStore.Batch batch = store.peekBatch(4, Integer.MAX_VALUE, Long.MAX_VALUE);
+        if (!backend.equals("prefs")) {
+            assertEquals(Arrays.asList("first", "a", "b", "a"), batch.records);
+        }
+    }
+
+    @Test
+    public void expiredBatchesAreReleasedFromAFullStore() throws Exception {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String padding = new String(chars);
+
+        List<String> appended = new ArrayList<String>();
+        while (appended.size() < 100 && store.hasRoom(padding.length() + 3)) {
+            String payload = String.format("%03d", appended.size()) + padding;
+            store.append(payload);
+            appended.add(payload);
+        }
+
+        int batches = 0;
+        while (store.peekBatch(10, Integer.MAX_VALUE, 100).records.size() > 0) {
+            batches++;
+        }
+        assertEquals(0, store.available());
+
+        assertEquals(batches, store.releaseExpired(100));
+        assertEquals(appended.size(), store.count());
+        assertEquals(appended.size(), store.available());
+
+        EventStore.Batch again = store.peekBatch(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        List<String> sorted = new ArrayList<String>(again.records);
+        Collections.sort(sorted);
+        assertEquals(appended, sorted);
+        assertTrue(store.ack(again));
+        assertEquals(0, store.count());
+
+        store.close();
+        store = open();
+        assertEquals(0, store.count());
+    }
+
+    @Test
+    public void releasedRecordsAreHandedOutOnceMore() throws Exception {
+        for (String payload : new String[] { "a", "b", "c", "d", "e", "f" }) {
+            store.append(payload);
+        }
+        EventStore.Batch first = store.peekBatch(2, Integer.MAX_VALUE, Long.MAX_VALUE);
+        EventStore.Batch second = store.peekBatch(2, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertTrue(store.release(first));
+        assertFalse(store.ack(first));
+        assertTrue(store.ack(second));
+        assertEquals(4, store.count());
+        assertEquals(4, store.available());
+
+        List<String> records = new ArrayList<String>();
+        EventStore.Batch rest;
+        while (!(rest = store.peekBatch(10, Integer.MAX_VALUE, Long.MAX_VALUE)).records.isEmpty()) {
+            records.addAll(rest.records);
+            assertTrue(store.ack(rest));
+        }
+        if (backend.equals("ring")) {
+            // Released records go out again ahead of newer ones.
+            assertEquals(Arrays.asList("a", "b", "e", "f"), records);
+        }
+        records.addAll(second.records);
+        Collections.sort(records);
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), records);
+        assertEquals(0, store.count());
+        assertEquals(0, store.liveBytes());
+        store.close();
+        store = open();
+        assertEquals(0, store.count());
+    }
+
+    private EventStore open() throws IOException {
+        if (backend.equals("journal")) {
+            return new EventJournal(new File(folder.getRoot(), "journal"));
+        } else if (backend.equals("prefs")) {
+            return new SharedPreferencesEventStore(prefs);
+        }
+        return new MappedRingEventStore(new File(folder.getRoot(), "ring"), RING_BYTES);
+    }
+}
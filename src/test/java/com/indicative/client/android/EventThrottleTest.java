@@ -0,0 +1,50 @@
+package com.indicative.client.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that rate limits hold their state while the rules around them change.
+ */
+public class EventThrottleTest {
+
+    // One token every 1000 seconds, so none come back during a test.
+    private static final double SLOW = 0.001;
+
+    private final EventThrottle throttle = new EventThrottle();
+
+    @Test
+    public void burstIsSpentThenLimited() {
+        throttle.setRateLimit("tap", SLOW, 2);
+        assertEquals(1, throttle.admit("tap"), 0);
+        assertEquals(1, throttle.admit("tap"), 0);
+        assertEquals(0, throttle.admit("tap"), 0);
+        assertEquals(1, throttle.admit("view"), 0);
+    }
+
+    @Test
+    public void changingTheSampleRateKeepsTheBucket() {
+        throttle.setRateLimit("tap", SLOW, 2);
+        throttle.admit("tap");
+        throttle.admit("tap");
+
+        throttle.setSampleRate("tap", 0.999999);
+        throttle.setSampleRate("tap", 1);
+        assertEquals(0, throttle.admit("tap"), 0);
+    }
+
+    @Test
+    public void settingTheSameRateLimitKeepsTheBucket() {
+        throttle.setRateLimit("tap", SLOW, 2);
+        throttle.admit("tap");
+        throttle.admit("tap");
+
+        throttle.setRateLimit("tap", SLOW, 2);
+        assertEquals(0, throttle.admit("tap"), 0);
+
+        // A new limit starts with a full burst.
+        throttle.setRateLimit("tap", SLOW, 3);
+        assertEquals(1, throttle.admit("tap"), 0);
+    }
+}
@@ -0,0 +1,101 @@
+package com.indicative.client.android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that listener callbacks go through the executor while counters update right away.
+ */
+public class MetricsRecorderTest {
+
+    private final List<Runnable> posted = new ArrayList<Runnable>();
+    private final List<String> heard = new ArrayList<String>();
+    private MetricsRecorder metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new MetricsRecorder(new Executor() {
+            @Override
+            public void execute(Runnable callback) {
+                posted.add(callback);
+            }
+        });
+        metrics.setListener(new IndicativeListener() {
+            @Override
+            public void onFlush(int events, int uploads) {
+                heard.add("flush " + events + " " + uploads);
+            }
+
+            @Override
+            public void onUploadComplete(int statusCode, int events, long latencyMs) {
+                heard.add("upload " + statusCode);
+            }
+
+            @Override
+            public void onEventsRetried(int retried, int deadLettered, long delayMs) {
+                heard.add("retried " + retried + " " + deadLettered);
+            }
+
+            @Override
+            public void onEventsDropped(int events) {
+                heard.add("dropped " + events);
+                throw new IllegalStateException("listener bug");
+            }
+
+            @Override
+            public void onError(String message, Throwable error) {
+                heard.add("error " + message);
+            }
+        });
+    }
+
+    @Test
+    public void callbacksWaitForTheExecutor() {
+        metrics.onEventsDropped(3);
+        metrics.onError("disk full", null);
+
+        assertEquals(3, metrics.droppedEvents());
+        assertTrue(heard.isEmpty());
+
+        runPosted();
+        assertEquals(2, heard.size());
+        assertEquals("dropped 3", heard.get(0));
+        assertEquals("error disk full", heard.get(1));
+    }
+
+    @Test
+    public void callbacksKeepTheirOrder() {
+        metrics.onFlush(10, 2);
+        metrics.onUploadComplete(200, 5, 30);
+        metrics.onEventsRetried(5, 0, 1000);
+
+        runPosted();
+        assertEquals("flush 10 2", heard.get(0));
+        assertEquals("upload 200", heard.get(1));
+        assertEquals("retried 5 0", heard.get(2));
+    }
+
+    @Test
+    public void nothingIsPostedWithoutAListener() {
+        metrics.setListener(null);
+        metrics.onEventsDropped(1);
+
+        assertTrue(posted.isEmpty());
+        assertEquals(1, metrics.droppedEvents());
+    }
+
+    private void runPosted() {
+        for (Runnable callback : posted) {
+            // A listener that throws does not stop the ones after it.
+            callback.run();
+        }
+        posted.clear();
+    }
+}
@@ -0,0 +1,56 @@
+package com.indicative.client.android;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that utf8Length() agrees with what the writer and String.getBytes() actually encode,
+ * surrogates included.
+ */
+public class PayloadWriterTest {
+
+    @Test
+    public void countsPairedAndUnpairedSurrogates() throws Exception {
+        String[] strings = {
+                "",
+                "plain",
+                "caf\u00e9",
+                "\u20ac",
+                "\ud83d\ude00",             // a valid pair
+                "\ud83d",                   // high surrogate at the end
+                "\ud83dx",                  // high surrogate followed by something else
+                "\ude00",                   // lone low surrogate
+                "\ude00\ud83d",             // halves in the wrong order
+                "\ud83d\ud83d\ude00",       // a stray high surrogate before a pair
+        };
+        for (String s : strings) {
+            assertEquals(s, s.getBytes("UTF-8").length, PayloadWriter.utf8Length(s));
+        }
+    }
+
+    @Test
+    public void countsRandomStrings() throws Exception {
+        Random random = new Random(7);
+        char[] pool = {'a', '"', '\u00e9', '\u0800', '\uffff', '\ud800', '\udbff', '\udc00', '\udfff'};
+        for (int n = 0; n < 2000; n++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = pool[random.nextInt(pool.length)];
+            }
+            String s = new String(chars);
+            assertEquals(s, s.getBytes("UTF-8").length, PayloadWriter.utf8Length(s));
+        }
+    }
+
+    @Test
+    public void writesUnpairedSurrogatesAsQuestionMarks() {
+        PayloadWriter writer = new PayloadWriter();
+        writer.value("a\ud83d\ude00b\ud83dc\ude00");
+
+        assertEquals("\"a\ud83d\ude00b?c?\"", writer.toString());
+        assertEquals(PayloadWriter.utf8Length(writer.toString()), writer.length());
+    }
+}
@@ -0,0 +1,153 @@
+package com.indicative.client.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Changes the common properties, queues events that refer to them and prunes the saved
+ * versions, checking that no queued event loses the version it refers to.
+ */
+public class PropertySnapshotsTest {
+
+    private static final int RECORDERS = 2;
+    private static final int PER_RECORDER = 2000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private EventJournal queue;
+    private PropertySnapshots snapshots;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("snapshots");
+        queue = new EventJournal(folder.newFolder("queue"));
+        snapshots = new PropertySnapshots(dir);
+    }
+
+    @After
+    public void tearDown() {
+        queue.close();
+    }
+
+    @Test
+    public void changeRecordPrune() throws Exception {
+        Map<String, PropertyValue> current = common("2");
+        record("{\"eventName\":\"a\"}", common("1"));
+        record("{\"eventName\":\"b\"}", current);
+        assertEquals(2, savedVersions());
+
+        // Both versions are still referred to.
+        snapshots.prune(queue);
+        assertEquals(2, savedVersions());
+
+        EventStore.Batch batch = queue.peekBatch(10, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals("{\"eventName\":\"a\",\"properties\":{\"appVersion\":\"1\"}}",
+                snapshots.expand(batch.records.get(0)));
+        assertEquals("{\"eventName\":\"b\",\"properties\":{\"appVersion\":\"2\"}}",
+                snapshots.expand(batch.records.get(1)));
+
+        // Handed out for upload but not yet acknowledged.
+        snapshots.prune(queue);
+        assertEquals(2, savedVersions());
+
+        queue.ack(batch);
+        snapshots.prune(queue);
+        assertEquals(1, savedVersions());
+
+        // The current version is kept for the events recorded next.
+        record("{\"eventName\":\"c\"}", current);
+        assertEquals(1, savedVersions());
+    }
+
+    @Test
+    public void pruningWhileRecordingKeepsReferencedVersions() throws Exception {
+        final AtomicInteger running = new AtomicInteger(RECORDERS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> recorders = new ArrayList<Thread>();
+        for (int r = 0; r < RECORDERS; r++) {
+            final int recorder = r;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // A new version for every event, so one recorder's version is replaced
+                        // by the other's while it is still queueing an event that refers to it.
+                        for (int i = 0; i < PER_RECORDER; i++) {
+                            String name = recorder + "-" + i;
+                            record("{\"eventName\":\"" + name + "\"}", common(name));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            recorders.add(thread);
+        }
+
+        boolean drained = false;
+        while (!drained) {
+            drained = running.get() == 0;
+            EventStore.Batch batch = queue.peekBatch(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+            for (String record : batch.records) {
+                assertTrue("Version of " + record + " was pruned", new File(dir, version(record)).exists());
+            }
+            queue.ack(batch);
+            snapshots.prune(queue);
+            if (drained && queue.count() > 0) {
+                drained = false;
+            }
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertNull(failure.get());
+        assertFalse(queue.count() > 0);
+        assertEquals(1, savedVersions());
+    }
+
+    /**
+     * Queues an event the way recording does.
+     */
+    private void record(String payload, Map<String, PropertyValue> common) throws IOException {
+        synchronized (queue) {
+            queue.append(snapshots.reference(payload, common));
+        }
+    }
+
+    private int savedVersions() {
+        return dir.list().length;
+    }
+
+    private static String version(String record) {
+        return record.substring(PropertySnapshots.PAYLOAD_PREFIX.length(), record.indexOf(':'));
+    }
+
+    private static Map<String, PropertyValue> common(String appVersion) {
+        Map<String, PropertyValue> common = new LinkedHashMap<String, PropertyValue>();
+        common.put("appVersion", PropertyValue.of(appVersion));
+        return Collections.unmodifiableMap(common);
+    }
+}
@@ -0,0 +1,125 @@
+package com.indicative.client.android;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A local HTTP server standing in for the API.  It keeps every request it is sent, with gzipped
+ * bodies decompressed, and answers with the responses it was given in order, then with 200s.
+ */
+final class StubServer {
+
+    /**
+     * A request as the server saw it.
+     */
+    static final class Request {
+        final String path;
+        final Map<String, String> headers;
+        final String body;
+
+        Request(String path, Map<String, String> headers, String body) {
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+
+    private static final class Reply {
+        final int status;
+        final String[] headers;
+
+        Reply(int status, String[] headers) {
+            this.status = status;
+            this.headers = headers;
+        }
+    }
+
+    private final HttpServer server;
+    private final List<Request> requests = new ArrayList<Request>();
+    private final LinkedList<Reply> replies = new LinkedList<Reply>();
+
+    StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return  The URL of a path on the server
+     */
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Queues the answer to a later request.
+     *
+     * @param status    The status code
+     * @param headers   Header names and values, alternating
+     */
+    synchronized void enqueue(int status, String... headers) {
+        replies.add(new Reply(status, headers));
+    }
+
+    synchronized List<Request> requests() {
+        return new ArrayList<Request>(requests);
+    }
+
+    void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            headers.put(header.getKey(), header.getValue().get(0));
+        }
+
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(headers.get("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+
+        Reply reply;
+        synchronized (this) {
+            requests.add(new Request(exchange.getRequestURI().getPath(), headers, body.toString("UTF-8")));
+            reply = replies.isEmpty() ? new Reply(200, new String[0]) : replies.removeFirst();
+        }
+        for (int i = 0; i + 1 < reply.headers.length; i += 2) {
+            exchange.getResponseHeaders().add(reply.headers[i], reply.headers[i + 1]);
+        }
+        byte[] response = "{}".getBytes("UTF-8");
+        exchange.sendResponseHeaders(reply.status, response.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(response);
+        out.close();
+    }
+}
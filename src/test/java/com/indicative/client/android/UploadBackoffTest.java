@@ -0,0 +1,135 @@
+package com.indicative.client.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the backoff with the responses a stub server gives, as an upload would.
+ */
+public class UploadBackoffTest {
+
+    private static final long NOW = 1000000;
+
+    private StubServer server;
+    private UploadBackoff backoff;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        backoff = new UploadBackoff(new Random(42));
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void serverErrorsBackOffOnlyTheFailedBatch() throws Exception {
+        server.enqueue(503);
+        UploadClient.Response response = post();
+
+        assertEquals(503, response.statusCode);
+        assertTrue(UploadClient.isRetriable(response.statusCode));
+        assertEquals(-1, response.retryAfterMs);
+
+        long delay = backoff.onFailure(1, response.retryAfterMs, NOW);
+        assertTrue(delay >= 0 && delay < UploadBackoff.BASE_DELAY_MS);
+        // Without a Retry-After, other batches carry on.
+        assertTrue(backoff.canAttempt(NOW));
+    }
+
+    @Test
+    public void delaysGrowWithEachAttempt() {
+        for (int attempt = 1; attempt < UploadBackoff.MAX_ATTEMPTS; attempt++) {
+            long ceiling = Math.min(UploadBackoff.MAX_DELAY_MS, UploadBackoff.BASE_DELAY_MS << (attempt - 1));
+            long maxSeen = 0;
+            for (int i = 0; i < 200; i++) {
+                long delay = backoff.onFailure(attempt, -1, NOW);
+                assertTrue(delay >= 0 && delay < ceiling);
+                maxSeen = Math.max(maxSeen, delay);
+            }
+            // Fully jittered: the delays spread over the whole range up to the ceiling.
+            assertTrue(maxSeen > ceiling / 2);
+        }
+    }
+
+    @Test
+    public void givesUpOnABatchAfterTooManyAttempts() {
+        assertTrue(backoff.onFailure(UploadBackoff.MAX_ATTEMPTS - 1, -1, NOW) >= 0);
+        assertEquals(-1, backoff.onFailure(UploadBackoff.MAX_ATTEMPTS, -1, NOW));
+        // Another batch's attempts are its own.
+        assertTrue(backoff.onFailure(1, -1, NOW) >= 0);
+    }
+
+    @Test
+    public void honorsRetryAfterInSeconds() throws Exception {
+        server.enqueue(429, "Retry-After", "120");
+        UploadClient.Response response = post();
+
+        assertEquals(429, response.statusCode);
+        assertTrue(UploadClient.isRetriable(response.statusCode));
+        assertEquals(120000, response.retryAfterMs);
+
+        long delay = backoff.onFailure(1, response.retryAfterMs, NOW);
+        assertEquals(120000, delay);
+        // The server asked the whole client to wait.
+        assertFalse(backoff.canAttempt(NOW));
+        assertEquals(120000, backoff.remainingDelayMs(NOW));
+        assertTrue(backoff.canAttempt(NOW + 120000));
+    }
+
+    @Test
+    public void honorsRetryAfterAsADate() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        server.enqueue(503, "Retry-After", format.format(new Date(System.currentTimeMillis() + 60000)));
+        UploadClient.Response response = post();
+
+        assertEquals(503, response.statusCode);
+        assertTrue(response.retryAfterMs > 55000 && response.retryAfterMs <= 60000);
+        assertTrue(backoff.onFailure(1, response.retryAfterMs, NOW) >= response.retryAfterMs);
+    }
+
+    @Test
+    public void capsRetryAfter() {
+        assertEquals(UploadBackoff.MAX_DELAY_MS, backoff.onFailure(1, 24 * 60 * 60 * 1000L, NOW));
+    }
+
+    @Test
+    public void successLiftsThePause() throws Exception {
+        backoff.onFailure(1, 60000, NOW);
+        assertFalse(backoff.canAttempt(NOW));
+
+        UploadClient.Response response = post();
+        assertEquals(200, response.statusCode);
+        assertFalse(UploadClient.isRetriable(response.statusCode));
+        backoff.onSuccess();
+        assertTrue(backoff.canAttempt(NOW));
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        server.enqueue(400);
+        assertFalse(UploadClient.isRetriable(post().statusCode));
+        server.enqueue(408);
+        assertTrue(UploadClient.isRetriable(post().statusCode));
+        assertTrue(UploadClient.isRetriable(0));
+    }
+
+    private UploadClient.Response post() throws Exception {
+        return UploadClient.post(server.url("/service/event"), new UploadBody().append("{\"eventName\":\"e\"}"),
+                -1, null, false);
+    }
+}
@@ -0,0 +1,113 @@
+package com.indicative.client.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UploadClientTest {
+
+    private StubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void gzipsBodiesAtTheThreshold() throws Exception {
+        UploadBody body = batch(200);
+        long length = body.utf8Length();
+
+        UploadClient.Response response = UploadClient.post(server.url("/service/event/batch"), body,
+                (int) length, null, false);
+
+        assertEquals(200, response.statusCode);
+        List<StubServer.Request> requests = server.requests();
+        assertEquals(1, requests.size());
+        StubServer.Request request = requests.get(0);
+        assertEquals("/service/event/batch", request.path);
+        assertEquals("gzip", request.header("Content-Encoding"));
+        assertEquals("chunked", request.header("Transfer-Encoding"));
+        assertEquals(body.toString(), request.body);
+    }
+
+    @Test
+    public void sendsSmallerBodiesUncompressed() throws Exception {
+        UploadBody body = batch(3);
+        long length = body.utf8Length();
+
+        UploadClient.post(server.url("/service/event/batch"), body, (int) length + 1, null, false);
+
+        StubServer.Request request = server.requests().get(0);
+        assertNull(request.header("Content-Encoding"));
+        assertEquals(Long.toString(length), request.header("Content-Length"));
+        assertEquals(body.toString(), request.body);
+    }
+
+    @Test
+    public void sendsUncompressedWhenGzipIsOff() throws Exception {
+        UploadBody body = batch(200);
+
+        UploadClient.post(server.url("/service/event/batch"), body, -1, null, false);
+
+        StubServer.Request request = server.requests().get(0);
+        assertNull(request.header("Content-Encoding"));
+        assertEquals(body.toString(), request.body);
+    }
+
+    @Test
+    public void gzipsSingleEvents() throws Exception {
+        UploadBody body = new UploadBody().append(event(0));
+
+        UploadClient.post(server.url("/service/event"), body, 0, null, false);
+
+        StubServer.Request request = server.requests().get(0);
+        assertEquals("gzip", request.header("Content-Encoding"));
+        assertEquals(event(0), request.body);
+    }
+
+    @Test
+    public void namesTheBatchEncoding() throws Exception {
+        UploadBody body = new UploadBody().append(
+                BatchCodec.encode("key", Arrays.asList(event(0), event(1))));
+
+        UploadClient.post(server.url("/service/event/batch"), body, 0, BatchCodec.ENCODING, false);
+
+        StubServer.Request request = server.requests().get(0);
+        assertEquals(BatchCodec.ENCODING, request.header(BatchCodec.HEADER));
+        assertEquals("gzip", request.header("Content-Encoding"));
+        assertEquals(body.toString(), request.body);
+    }
+
+    /**
+     * @return  A batch request body made of many parts, as Indicative builds them
+     */
+    private static UploadBody batch(int events) {
+        UploadBody body = new UploadBody().append("{\"apiKey\":\"key\",\"events\":[");
+        for (int i = 0; i < events; i++) {
+            if (i > 0) {
+                body.append(",");
+            }
+            String payload = "  " + event(i) + "\n";
+            body.append(payload, 2, payload.length() - 1);
+        }
+        return body.append("]}");
+    }
+
+    private static String event(int i) {
+        return "{\"apiKey\":\"key\",\"eventName\":\"Café 😀\",\"eventTime\":" + (1500000000000L + i)
+                + ",\"idempotencyKey\":\"k" + i + "\",\"eventUniqueId\":\"user\","
+                + "\"properties\":{\"screen\":\"home\",\"index\":" + i + "}}";
+    }
+}